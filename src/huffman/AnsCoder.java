@@ -0,0 +1,320 @@
+package huffman;
+import java.io.IOException;
+
+import huffman.ThirdPartyClasses.BitOutputStream;
+
+/**
+ * TABLED ANS CODER
+ * <code>EntropyCoder</code> based on tabled asymmetric numeral systems (tANS, as in FSE).
+ * The frequencies are scaled so they add up to the table size, and each symbol takes a number
+ * of table states proportional to its frequency. Coding a symbol moves from one state to another
+ * and outputs a few bits, so symbols cost a fractional number of bits instead of at least one.
+ * <P>
+ * Symbols are encoded from last to first and decoded from first to last. The header holds the
+ * table size and the scaled frequency of each symbol, followed by the final state of the encoder
+ * and the bits output for each symbol (in decoding order)
+ * @author Andres Beltran
+ * @version 1.0
+ */
+
+public class AnsCoder implements EntropyCoder {
+
+	private static int MIN_TABLE_LOG = 5;		//Smallest table (32 states)
+	private static int MAX_TABLE_LOG = 12;		//Largest table (4096 states)
+	private static int TABLE_LOG_BITS = 4;		//Bits used to write the table size
+	private static int SYMBOL_BITS = 9;			//Bits used to write each symbol in the header
+
+
+	/**
+	 * Estimates the size of the header and the coded symbols from the scaled frequencies
+	 * @param frequencies The frequency of each symbol of the alphabet
+	 * @return The estimated number of bits
+	 */
+	@Override
+	public long estimateBits(int[] frequencies){
+
+		int tableLog = getTableLog(frequencies);
+		int[] normalized = normalize(frequencies, tableLog);
+		double bits = 0;
+		int symbols = 0;
+
+		for (int i = 0; i < frequencies.length; i++){
+			if (frequencies[i] > 0){
+				bits += frequencies[i] * (tableLog - Math.log(normalized[i]) / Math.log(2));
+				symbols++;
+			}
+		}
+
+		return (long) Math.ceil(bits) + TABLE_LOG_BITS + SYMBOL_BITS + symbols * (SYMBOL_BITS + tableLog) + tableLog;
+	}
+
+
+	/**
+	 * Writes the header, then runs the symbols through the states from last to first and writes
+	 * the bits output for each one in decoding order (nothing is written if there are no symbols)
+	 * @param writer The bit stream
+	 * @param symbols The symbols to be coded
+	 * @param count The number of symbols
+	 * @param frequencies The frequency of each symbol of the alphabet in <code>symbols</code>
+	 */
+	@Override
+	public void encode(BitOutputStream writer, int[] symbols, int count, int[] frequencies){
+
+		if (count == 0)
+			return;
+
+		int tableLog = getTableLog(frequencies);
+		int tableSize = 1 << tableLog;
+		int[] normalized = normalize(frequencies, tableLog);
+		writeHeader(writer, normalized, tableLog);
+
+		//Stores the states of each symbol, in increasing order, after the states of the previous symbols
+		int[] start = new int[normalized.length];
+		for (int i = 1; i < normalized.length; i++)
+			start[i] = start[i - 1] + normalized[i - 1];
+
+		int[] seen = new int[normalized.length];
+		int[] nextState = new int[tableSize];
+		int[] spread = spreadSymbols(normalized, tableLog);
+
+		for (int position = 0; position < tableSize; position++){
+			int symbol = spread[position];
+			nextState[start[symbol] + seen[symbol]++] = tableSize + position;
+		}
+
+		//Encodes backwards, keeping the bits output for each symbol
+		int[] bitValues = new int[count];
+		int[] bitCounts = new int[count];
+		int state = tableSize;
+
+		for (int i = count - 1; i >= 0; i--){
+
+			int symbol = symbols[i];
+			int frequency = normalized[symbol];
+
+			//Outputs the bits that bring the state to [frequency, 2 * frequency)
+			int bits = tableLog + 1 - (32 - Integer.numberOfLeadingZeros(frequency));
+			if ((state >> bits) < frequency)
+				bits--;
+
+			bitValues[i] = state & ((1 << bits) - 1);
+			bitCounts[i] = bits;
+			state = nextState[start[symbol] + (state >> bits) - frequency];
+		}
+
+		writer.write(tableLog, state - tableSize);
+
+		for (int i = 0; i < count; i++){
+			if (bitCounts[i] > 0)
+				writer.write(bitCounts[i], bitValues[i]);
+		}
+	}
+
+
+	/**
+	 * Reads the header, rebuilds the decoding table and decodes the symbols from first to last,
+	 * starting from the final state of the encoder
+	 * @param reader The bit stream
+	 * @param symbols Receives the decoded symbols
+	 * @param count The number of symbols
+	 * @param alphabetSize The number of symbols in the alphabet
+	 * @throws IOException If the stream is corrupted
+	 */
+	@Override
+	public void decode(BitReader reader, int[] symbols, int count, int alphabetSize) throws IOException{
+
+		if (count == 0)
+			return;
+
+		int tableLog = reader.read(TABLE_LOG_BITS);
+
+		if (tableLog < MIN_TABLE_LOG || tableLog > MAX_TABLE_LOG)
+			throw new IOException("Invalid ANS table");
+
+		int tableSize = 1 << tableLog;
+		int[] normalized = readHeader(reader, tableLog, alphabetSize);
+		int[] spread = spreadSymbols(normalized, tableLog);
+
+		//For each state: the symbol, the bits to read and the base of the next state
+		int[] stateSymbol = new int[tableSize];
+		int[] stateBits = new int[tableSize];
+		int[] stateBase = new int[tableSize];
+		int[] next = normalized.clone();
+
+		for (int state = 0; state < tableSize; state++){
+
+			int symbol = spread[state];
+			int value = next[symbol]++;
+			int bits = tableLog - (31 - Integer.numberOfLeadingZeros(value));
+
+			stateSymbol[state] = symbol;
+			stateBits[state] = bits;
+			stateBase[state] = (value << bits) - tableSize;
+		}
+
+		int state = reader.read(tableLog);
+
+		for (int i = 0; i < count; i++){
+			symbols[i] = stateSymbol[state];
+			int bits = stateBits[state];
+			state = stateBase[state] + (bits == 0 ? 0 : reader.read(bits));
+		}
+
+		//The encoder started from the first state
+		if (state != 0 || reader.isOverrun())
+			throw new IOException("Invalid ANS stream");
+	}
+
+
+	/**
+	 * Chooses the table size: about 8 states per distinct symbol
+	 * @param frequencies The frequency of each symbol of the alphabet
+	 * @return The base-2 logarithm of the table size
+	 */
+	private static int getTableLog(int[] frequencies){
+
+		int symbols = 0;
+		for (int frequency : frequencies){
+			if (frequency > 0)
+				symbols++;
+		}
+
+		int tableLog = (32 - Integer.numberOfLeadingZeros(symbols)) + 3;
+		return Math.max(MIN_TABLE_LOG, Math.min(MAX_TABLE_LOG, tableLog));
+	}
+
+
+	/**
+	 * Scales the frequencies so they add up to the table size, keeping every used symbol above 0
+	 * @param frequencies The frequency of each symbol of the alphabet
+	 * @param tableLog The base-2 logarithm of the table size
+	 * @return The scaled frequencies
+	 */
+	private static int[] normalize(int[] frequencies, int tableLog){
+
+		int tableSize = 1 << tableLog;
+		int[] normalized = new int[frequencies.length];
+		long total = 0;
+		int largest = 0;
+
+		for (int i = 0; i < frequencies.length; i++){
+			total += frequencies[i];
+			if (frequencies[i] > frequencies[largest])
+				largest = i;
+		}
+
+		if (total == 0)
+			return normalized;
+
+		int sum = 0;
+		for (int i = 0; i < frequencies.length; i++){
+			if (frequencies[i] > 0){
+				normalized[i] = (int) Math.max(1, (long) frequencies[i] * tableSize / total);
+				sum += normalized[i];
+			}
+		}
+
+		//Rounding errors go to the most frequent symbol, as long as it can take them
+		int difference = tableSize - sum;
+
+		if (normalized[largest] + difference >= 1){
+			normalized[largest] += difference;
+			return normalized;
+		}
+
+		//Otherwise takes states away from every symbol that has more than one
+		while (difference < 0){
+			for (int i = 0; i < normalized.length && difference < 0; i++){
+				if (normalized[i] > 1){
+					normalized[i]--;
+					difference++;
+				}
+			}
+		}
+
+		return normalized;
+	}
+
+
+	/**
+	 * Spreads the states of each symbol over the table, so every symbol appears all over it
+	 * @param normalized The scaled frequencies
+	 * @param tableLog The base-2 logarithm of the table size
+	 * @return The symbol of each state
+	 */
+	private static int[] spreadSymbols(int[] normalized, int tableLog){
+
+		int tableSize = 1 << tableLog;
+		int step = (tableSize >> 1) + (tableSize >> 3) + 3;	//Odd, so every position is visited once
+		int[] spread = new int[tableSize];
+		int position = 0;
+
+		for (int symbol = 0; symbol < normalized.length; symbol++){
+			for (int i = 0; i < normalized[symbol]; i++){
+				spread[position] = symbol;
+				position = (position + step) & (tableSize - 1);
+			}
+		}
+
+		return spread;
+	}
+
+
+	/**
+	 * Writes the table size and the scaled frequency of each used symbol
+	 * @param writer The bit stream
+	 * @param normalized The scaled frequencies
+	 * @param tableLog The base-2 logarithm of the table size
+	 */
+	private static void writeHeader(BitOutputStream writer, int[] normalized, int tableLog){
+
+		int symbols = 0;
+		for (int frequency : normalized){
+			if (frequency > 0)
+				symbols++;
+		}
+
+		writer.write(TABLE_LOG_BITS, tableLog);
+		writer.write(SYMBOL_BITS, symbols);
+
+		for (int i = 0; i < normalized.length; i++){
+			if (normalized[i] > 0){
+				writer.write(SYMBOL_BITS, i);
+				writer.write(tableLog, normalized[i] - 1);
+			}
+		}
+	}
+
+
+	/**
+	 * Reads the scaled frequencies written by <code>writeHeader</code>
+	 * @param reader The bit stream
+	 * @param tableLog The base-2 logarithm of the table size
+	 * @param alphabetSize The number of symbols in the alphabet
+	 * @return The scaled frequencies
+	 * @throws IOException If the frequencies do not add up to the table size
+	 */
+	private static int[] readHeader(BitReader reader, int tableLog, int alphabetSize) throws IOException{
+
+		int[] normalized = new int[alphabetSize];
+		int symbols = reader.read(SYMBOL_BITS);
+		int sum = 0;
+
+		for (int i = 0; i < symbols; i++){
+
+			int symbol = reader.read(SYMBOL_BITS);
+
+			if (symbol >= alphabetSize || normalized[symbol] > 0)
+				throw new IOException("Invalid ANS table");
+
+			normalized[symbol] = reader.read(tableLog) + 1;
+			sum += normalized[symbol];
+		}
+
+		if (sum != 1 << tableLog || reader.isOverrun())
+			throw new IOException("Invalid ANS table");
+
+		return normalized;
+	}
+
+}
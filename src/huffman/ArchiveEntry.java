@@ -0,0 +1,151 @@
+package huffman;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * ARCHIVE ENTRY
+ * Record of the central directory of an archive: the name of a file, the position and size of
+ * its container in the archive, and the size and CRC32C of the original file
+ * @author Andres Beltran
+ * @version 1.0
+ */
+
+public class ArchiveEntry {
+
+	private static int MAX_NAME_LENGTH = 0xffff;	//Names are written after their length (2 bytes)
+
+	private String name;			//Stores the name of the file (relative path, '/' separated)
+	private long offset;			//Stores the position of the container in the archive
+	private long compressedSize;	//Stores the size of the container (bytes)
+	private long originalSize;		//Stores the size of the original file (bytes)
+	private int checksum;			//Stores the CRC32C of the original file
+
+
+	/**
+	 * Initializes an entry
+	 * @param name The name of the file
+	 * @param offset The position of the container in the archive
+	 * @param compressedSize The size of the container (bytes)
+	 * @param originalSize The size of the original file (bytes)
+	 * @param checksum The CRC32C of the original file
+	 */
+	public ArchiveEntry(String name, long offset, long compressedSize, long originalSize, int checksum){
+
+		this.name = name;
+		this.offset = offset;
+		this.compressedSize = compressedSize;
+		this.originalSize = originalSize;
+		this.checksum = checksum;
+	}
+
+
+	/**
+	 * Returns the name of the file
+	 * @return The relative path, with '/' separators
+	 */
+	public String getName(){
+		return name;
+	}
+
+
+	/**
+	 * Returns the position of the container
+	 * @return The position in the archive
+	 */
+	public long getOffset(){
+		return offset;
+	}
+
+
+	/**
+	 * Returns the size of the container
+	 * @return The compressed size (bytes)
+	 */
+	public long getCompressedSize(){
+		return compressedSize;
+	}
+
+
+	/**
+	 * Returns the size of the original file
+	 * @return The original size (bytes)
+	 */
+	public long getOriginalSize(){
+		return originalSize;
+	}
+
+
+	/**
+	 * Returns the checksum of the original file
+	 * @return The CRC32C of the original file
+	 */
+	public int getChecksum(){
+		return checksum;
+	}
+
+
+	/**
+	 * Checks if a name can be stored in an archive and extracted safely
+	 * @param name The name of the file
+	 * @return True if the name is a relative path that stays inside the extraction directory
+	 */
+	public static boolean isValidName(String name){
+
+		if (name.isEmpty() || name.startsWith("/") || name.getBytes(StandardCharsets.UTF_8).length > MAX_NAME_LENGTH)
+			return false;
+
+		for (String part : name.split("/")){
+			if (part.isEmpty() || part.equals(".") || part.equals("..") || part.indexOf('\\') >= 0 || part.indexOf(':') >= 0)
+				return false;
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * Writes the entry to the central directory
+	 * @param output The directory being written
+	 * @throws IOException If there is an error writing the directory
+	 */
+	public void write(DataOutputStream output) throws IOException{
+
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+
+		output.writeShort(bytes.length);
+		output.write(bytes);
+		output.writeLong(offset);
+		output.writeLong(compressedSize);
+		output.writeLong(originalSize);
+		output.writeInt(checksum);
+	}
+
+
+	/**
+	 * Reads an entry written by <code>write</code>
+	 * @param input The directory being read
+	 * @param directoryOffset The position of the directory (containers end before it)
+	 * @return The entry
+	 * @throws IOException If the entry is not valid
+	 */
+	public static ArchiveEntry read(DataInputStream input, long directoryOffset) throws IOException{
+
+		byte[] bytes = new byte[input.readUnsignedShort()];
+		input.readFully(bytes);
+
+		String name = new String(bytes, StandardCharsets.UTF_8);
+		long offset = input.readLong();
+		long compressedSize = input.readLong();
+		long originalSize = input.readLong();
+		int checksum = input.readInt();
+
+		if (!isValidName(name) || offset < BlockFormat.ARCHIVE_HEADER_SIZE || compressedSize < 0
+				|| compressedSize > directoryOffset - offset || originalSize < 0)
+			throw new IOException("Invalid archive entry");
+
+		return new ArchiveEntry(name, offset, compressedSize, originalSize, checksum);
+	}
+
+}
@@ -0,0 +1,326 @@
+package huffman;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32C;
+
+/**
+ * ARCHIVE READER
+ * Reads the central directory of an archive written by <code>ArchiveWriter</code> from the end
+ * of the file, and extracts entries by decoding their containers in place. Every entry is read
+ * with positional reads, so several entries can be extracted at the same time
+ * @author Andres Beltran
+ * @version 1.0
+ */
+
+public class ArchiveReader {
+
+	private FileChannel file;				//Stores the archive
+	private List<ArchiveEntry> entries;		//Stores the central directory, in archive order
+	private HashMap<String, ArchiveEntry> entriesByName = new HashMap<>();	//Finds entries by name
+
+
+	/**
+	 * Opens an archive and reads its central directory
+	 * @param archiveFile The name of the archive
+	 * @throws IOException If the file cannot be read or is not a valid archive
+	 */
+	public ArchiveReader(String archiveFile) throws IOException{
+
+		file = FileChannel.open(Paths.get(archiveFile), StandardOpenOption.READ);
+
+		try {
+			readDirectory();
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+
+	/**
+	 * Reads the end record and the central directory
+	 * @throws IOException If the archive is not valid
+	 */
+	private void readDirectory() throws IOException{
+
+		long size = file.size();
+
+		if (size < BlockFormat.ARCHIVE_HEADER_SIZE + BlockFormat.ARCHIVE_END_SIZE)
+			throw new IOException("The file is not an archive");
+
+		ByteBuffer header = ByteBuffer.allocate(BlockFormat.ARCHIVE_HEADER_SIZE);
+		readFully(header, 0);
+
+		ByteBuffer end = ByteBuffer.allocate(BlockFormat.ARCHIVE_END_SIZE);
+		readFully(end, size - BlockFormat.ARCHIVE_END_SIZE);
+
+		if (header.getInt(0) != BlockFormat.ARCHIVE_NUMBER || end.getInt(16) != BlockFormat.ARCHIVE_NUMBER)
+			throw new IOException("The file is not an archive");
+
+		if (header.get(4) != BlockFormat.ARCHIVE_VERSION)
+			throw new IOException("Unsupported archive version");
+
+		int count = end.getInt(0);
+		long directoryOffset = end.getLong(4);
+		long directorySize = size - BlockFormat.ARCHIVE_END_SIZE - directoryOffset;
+
+		if (count < 0 || directoryOffset < BlockFormat.ARCHIVE_HEADER_SIZE || directorySize < 0 || directorySize > Integer.MAX_VALUE)
+			throw new IOException("Invalid archive directory");
+
+		ByteBuffer directory = ByteBuffer.allocate((int) directorySize);
+		readFully(directory, directoryOffset);
+
+		CRC32C checksum = new CRC32C();
+		checksum.update(directory.array(), 0, directory.capacity());
+
+		if ((int) checksum.getValue() != end.getInt(12))
+			throw new IOException("Checksum mismatch in archive directory");
+
+		DataInputStream input = new DataInputStream(new ByteArrayInputStream(directory.array()));
+		ArrayList<ArchiveEntry> list = new ArrayList<>();
+
+		for (int i = 0; i < count; i++){
+
+			ArchiveEntry entry = ArchiveEntry.read(input, directoryOffset);
+
+			if (entriesByName.put(entry.getName(), entry) != null)
+				throw new IOException("Duplicate entry name " + entry.getName());
+
+			list.add(entry);
+		}
+
+		if (input.available() > 0)
+			throw new IOException("Invalid archive directory");
+
+		entries = Collections.unmodifiableList(list);
+	}
+
+
+	/**
+	 * Returns the central directory
+	 * @return The entries, in archive order
+	 */
+	public List<ArchiveEntry> getEntries(){
+		return entries;
+	}
+
+
+	/**
+	 * Finds an entry by name
+	 * @param name The name of the entry
+	 * @return The entry, or null if the archive does not contain it
+	 */
+	public ArchiveEntry getEntry(String name){
+		return entriesByName.get(name);
+	}
+
+
+	/**
+	 * Decodes an entry into a file
+	 * @param entry The entry
+	 * @param outputFile The name of the decoded file
+	 * @throws IOException If there is an error with any file or the entry is corrupted
+	 */
+	public void extract(ArchiveEntry entry, String outputFile) throws IOException{
+
+		try (FileChannel output = FileChannel.open(Paths.get(outputFile), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+			decodeEntry(entry, output, null);
+		}
+	}
+
+
+	/**
+	 * Decodes an entry and checks its checksums, without writing anything
+	 * @param entry The entry
+	 * @throws IOException If there is an error reading the archive or the entry is corrupted
+	 */
+	public void verify(ArchiveEntry entry) throws IOException{
+		decodeEntry(entry, null, null);
+	}
+
+
+	/**
+	 * Decodes several entries into a directory, keeping their relative paths. The entries are
+	 * extracted in parallel, each one by a single thread
+	 * @param selected The entries
+	 * @param directory The name of the directory
+	 * @param threads The number of entries extracted at the same time
+	 * @throws IOException If there is an error with any file or an entry is corrupted
+	 */
+	public void extract(List<ArchiveEntry> selected, String directory, int threads) throws IOException{
+
+		final Path root = Paths.get(directory).toAbsolutePath().normalize();
+		ExecutorService extractors = Executors.newFixedThreadPool(threads);
+
+		//Each thread decodes into its own block, which grows with the block size of the entries
+		final ThreadLocal<byte[]> blocks = new ThreadLocal<>();
+
+		try {
+
+			ArrayList<Future<Void>> results = new ArrayList<>();
+
+			for (final ArchiveEntry entry : selected){
+				results.add(extractors.submit(new Callable<Void>(){
+					public Void call() throws IOException{
+
+						Path target = root.resolve(entry.getName()).normalize();
+
+						if (!target.startsWith(root))
+							throw new IOException("Invalid entry name " + entry.getName());
+
+						if (target.getParent() != null)
+							Files.createDirectories(target.getParent());
+
+						try (FileChannel output = FileChannel.open(target, StandardOpenOption.CREATE,
+								StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+							blocks.set(decodeEntry(entry, output, blocks.get()));
+						}
+
+						return null;
+					}
+				}));
+			}
+
+			for (Future<Void> result : results)
+				result.get();
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Extraction interrupted");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException("Decoding error", e.getCause());
+		} finally {
+			extractors.shutdownNow();
+		}
+	}
+
+
+	/**
+	 * Decodes the container of an entry and checks the size and checksum of the result
+	 * @param entry The entry
+	 * @param output Receives the decoded data (null to only check it)
+	 * @param block Stores each decoded block (replaced if null or smaller than the blocks of the entry)
+	 * @return The array used to store each block
+	 * @throws IOException If there is an error with any file or the entry is corrupted
+	 */
+	private byte[] decodeEntry(ArchiveEntry entry, FileChannel output, byte[] block) throws IOException{
+
+		BlockDecompressor decompressor = new BlockDecompressor(new BufferedInputStream(
+				new EntryInputStream(file, entry.getOffset(), entry.getCompressedSize())));
+
+		if (!decompressor.readHeader())
+			throw new IOException("Invalid container in entry " + entry.getName());
+
+		if (block == null || block.length < decompressor.getBlockSize())
+			block = new byte[decompressor.getBlockSize()];
+
+		CRC32C checksum = new CRC32C();
+		ByteBuffer buffer = ByteBuffer.wrap(block);
+		long originalSize = 0;
+		int length;
+
+		while ((length = decompressor.readBlock(block, 0, block.length)) != -1){
+
+			checksum.update(block, 0, length);
+			originalSize += length;
+
+			if (output != null){
+				buffer.clear().limit(length);
+				while (buffer.hasRemaining())
+					output.write(buffer);
+			}
+		}
+
+		if (decompressor.getPosition() != entry.getCompressedSize() || originalSize != entry.getOriginalSize())
+			throw new IOException("Size mismatch in entry " + entry.getName());
+
+		if ((int) checksum.getValue() != entry.getChecksum())
+			throw new IOException("Checksum mismatch in entry " + entry.getName());
+
+		return block;
+	}
+
+
+	/**
+	 * Reads bytes at a given position until the buffer is full
+	 * @param buffer The buffer to fill
+	 * @param position The position of the first byte
+	 * @throws IOException If the file ends before the buffer is full
+	 */
+	private void readFully(ByteBuffer buffer, long position) throws IOException{
+
+		while (buffer.hasRemaining()){
+			if (file.read(buffer, position + buffer.position()) == -1)
+				throw new EOFException("Unexpected end of file");
+		}
+	}
+
+
+	/**
+	 * Closes the archive
+	 * @throws IOException If there is an error closing the file
+	 */
+	public void close() throws IOException{
+		file.close();
+	}
+
+
+	/**
+	 * Input stream over the container of one entry, read with positional reads so it does not
+	 * move the position shared by other entries
+	 */
+	private static class EntryInputStream extends InputStream {
+
+		private FileChannel file;
+		private long position;
+		private long end;
+
+		EntryInputStream(FileChannel file, long offset, long length){
+			this.file = file;
+			position = offset;
+			end = offset + length;
+		}
+
+		@Override
+		public int read() throws IOException{
+			byte[] one = new byte[1];
+			return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException{
+
+			if (len == 0)
+				return 0;
+
+			if (position == end)
+				return -1;
+
+			int read = file.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+
+			if (read == -1)
+				return -1;
+
+			position += read;
+			return read;
+		}
+	}
+
+}
@@ -0,0 +1,157 @@
+package huffman;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * ARCHIVE WRITER
+ * Packs several files into one archive: each file is compressed into its own block container,
+ * and the central directory written by <code>close</code> records where each one is, so any
+ * entry can be extracted without reading the others (see <code>BlockFormat</code>)
+ * @author Andres Beltran
+ * @version 1.0
+ */
+
+public class ArchiveWriter {
+
+	private DataOutputStream output;		//Stores the archive
+	private BlockCompressor compressor;		//Compresses every entry (reusing its tables)
+	private ArrayList<ArchiveEntry> entries = new ArrayList<>();	//Stores the central directory
+	private HashSet<String> names = new HashSet<>();	//Stores the names already in the archive
+	private long position;					//Stores the number of bytes written so far
+	private File file;						//Stores the archive, deleted if an entry fails
+	private boolean failed;					//Set when an entry was only partly written
+
+
+	/**
+	 * Creates an archive
+	 * @param archiveFile The name of the archive
+	 * @param level The compression level (1 fastest - 9 best ratio)
+	 * @throws IOException If the archive cannot be created
+	 */
+	public ArchiveWriter(String archiveFile, int level) throws IOException{
+		this(archiveFile, CompressionConfig.forLevel(level));
+	}
+
+
+	/**
+	 * Creates an archive whose entries are compressed with the given parameters
+	 * @param archiveFile The name of the archive
+	 * @param config The compression parameters (the number of threads and the I/O mode are not used)
+	 * @throws IOException If the archive cannot be created
+	 */
+	public ArchiveWriter(String archiveFile, CompressionConfig config) throws IOException{
+
+		file = new File(archiveFile);
+		output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		compressor = new BlockCompressor(output, config);
+
+		output.writeInt(BlockFormat.ARCHIVE_NUMBER);
+		output.writeByte(BlockFormat.ARCHIVE_VERSION);
+		position = BlockFormat.ARCHIVE_HEADER_SIZE;
+	}
+
+
+	/**
+	 * Compresses a file and adds it to the archive
+	 * @param name The name of the entry (relative path, '/' separated)
+	 * @param inputFile The name of the file to be compressed
+	 * @throws IOException If there is an error with any file (if part of the entry was already
+	 * written, the archive can no longer be completed, and <code>close</code> deletes it)
+	 */
+	public void add(String name, String inputFile) throws IOException{
+
+		if (failed)
+			throw new IOException("The archive is incomplete after a failed entry");
+
+		if (!ArchiveEntry.isValidName(name))
+			throw new IllegalArgumentException("Invalid entry name " + name);
+
+		if (!names.add(name))
+			throw new IllegalArgumentException("Duplicate entry name " + name);
+
+		CheckedInputStream input = new CheckedInputStream(new FileInputStream(inputFile), new CRC32C());
+		long compressedBefore = compressor.getCompressedFileSize();
+		long originalBefore = compressor.getOriginalFileSize();
+
+		try {
+			compressor.write(input);
+		} catch (IOException | RuntimeException e) {
+			failed = true;
+			throw e;
+		} finally {
+			input.close();
+		}
+
+		long compressedSize = (compressor.getCompressedFileSize() - compressedBefore) / 8;
+		long originalSize = (compressor.getOriginalFileSize() - originalBefore) / 8;
+
+		entries.add(new ArchiveEntry(name, position, compressedSize, originalSize, (int) input.getChecksum().getValue()));
+		position += compressedSize;
+	}
+
+
+	/**
+	 * Returns the number of entries added so far
+	 * @return The number of entries
+	 */
+	public int getEntryCount(){
+		return entries.size();
+	}
+
+
+	/**
+	 * Writes the central directory and the end record, and closes the archive. If an entry
+	 * failed part of the way (or the directory cannot be written), the directory would not
+	 * match the data, so the archive is deleted instead
+	 * @throws IOException If there is an error writing the archive
+	 */
+	public void close() throws IOException{
+
+		if (failed){
+			discard();
+			return;
+		}
+
+		try {
+
+			ByteArrayOutputStream directory = new ByteArrayOutputStream();
+			DataOutputStream writer = new DataOutputStream(directory);
+
+			for (ArchiveEntry entry : entries)
+				entry.write(writer);
+
+			CRC32C checksum = new CRC32C();
+			checksum.update(directory.toByteArray(), 0, directory.size());
+
+			directory.writeTo(output);
+			output.writeInt(entries.size());
+			output.writeLong(position);
+			output.writeInt((int) checksum.getValue());
+			output.writeInt(BlockFormat.ARCHIVE_NUMBER);
+			output.close();
+
+		} catch (IOException e) {
+			discard();
+			throw e;
+		}
+	}
+
+
+	/**
+	 * Closes and deletes an archive that cannot be completed
+	 */
+	private void discard(){
+
+		try {
+			output.close();
+		} catch (IOException e) {
+			//The archive is deleted anyway
+		}
+
+		file.delete();
+	}
+
+}
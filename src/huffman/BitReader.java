@@ -0,0 +1,158 @@
+package huffman;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * BIT READER
+ * Reads bits (most significant bit first, like <code>BitOutputStream</code> writes them) through
+ * a 64-bit buffer, so several bits can be looked at without consuming them. The bits come either
+ * from a byte array or from a stream read in large chunks. Reading past the end returns zeros and
+ * is reported by <code>isOverrun</code>, which keeps the decoding loops free of end checks
+ * @author Andres Beltran
+ * @version 1.0
+ */
+
+public class BitReader {
+
+	private static int CHUNK_SIZE = 1 << 16;	//Bytes read from the stream at a time
+
+	private InputStream source;		//Stores the stream (null when reading from an array)
+	private byte[] data;			//Stores the bytes being read
+	private int position;			//Index of the next byte
+	private int limit;				//Index after the last byte
+	private long buffer;			//Bits not consumed yet, aligned to the left
+	private int bitCount;			//Number of valid bits in the buffer
+	private int paddingBits;		//Number of zero bits added after the end of the data
+	private long loadedBytes;		//Number of bytes (and padding bytes) moved into the buffer
+
+
+	/**
+	 * Initializes a reader for byte arrays (see <code>reset</code>)
+	 */
+	public BitReader(){
+		data = new byte[0];
+	}
+
+
+	/**
+	 * Initializes a reader that reads a stream in chunks
+	 * @param source The stream
+	 */
+	public BitReader(InputStream source){
+		this.source = source;
+		data = new byte[CHUNK_SIZE];
+	}
+
+
+	/**
+	 * Starts reading a new range of bytes
+	 * @param data The bytes
+	 * @param offset The index of the first byte
+	 * @param length The number of bytes
+	 */
+	public void reset(byte[] data, int offset, int length){
+
+		this.data = data;
+		position = offset;
+		limit = offset + length;
+		buffer = 0;
+		bitCount = 0;
+		paddingBits = 0;
+		loadedBytes = 0;
+	}
+
+
+	/**
+	 * Fills the buffer with at least 57 bits (zeros past the end of the data)
+	 * @throws IOException If there is an error reading the stream
+	 */
+	private void refill() throws IOException{
+
+		while (bitCount <= 56){
+
+			if (position == limit && source != null){
+				position = 0;
+				limit = Math.max(source.read(data, 0, data.length), 0);
+			}
+
+			if (position < limit){
+				buffer |= (long)(data[position++] & 0xff) << (56 - bitCount);
+			}else{
+				paddingBits += 8;
+			}
+
+			loadedBytes++;
+			bitCount += 8;
+		}
+	}
+
+
+	/**
+	 * Returns the next bits without consuming them
+	 * @param howManyBits The number of bits (1 - 32)
+	 * @return The bits, as the rightmost bits of the value
+	 * @throws IOException If there is an error reading the stream
+	 */
+	public int peek(int howManyBits) throws IOException{
+
+		if (bitCount < howManyBits)
+			refill();
+
+		return (int)(buffer >>> (64 - howManyBits));
+	}
+
+
+	/**
+	 * Consumes bits returned by <code>peek</code>
+	 * @param howManyBits The number of bits
+	 */
+	public void skip(int howManyBits){
+
+		buffer <<= howManyBits;
+		bitCount -= howManyBits;
+	}
+
+
+	/**
+	 * Reads and consumes the next bits
+	 * @param howManyBits The number of bits (1 - 32)
+	 * @return The bits, as the rightmost bits of the value
+	 * @throws IOException If there is an error reading the stream
+	 */
+	public int read(int howManyBits) throws IOException{
+
+		int value = peek(howManyBits);
+		skip(howManyBits);
+		return value;
+	}
+
+
+	/**
+	 * Returns how far the reader is into its data
+	 * @return The number of bits consumed since the last <code>reset</code> (or the start of the stream)
+	 */
+	public long getPosition(){
+		return 8 * loadedBytes - bitCount;
+	}
+
+
+	/**
+	 * Checks if bits after the end of the data have been consumed
+	 * @return True if the data was too short for what has been read
+	 */
+	public boolean isOverrun(){
+		return paddingBits > bitCount;
+	}
+
+
+	/**
+	 * Closes the stream (if any)
+	 * @throws IOException If there is an error closing the stream
+	 */
+	public void close() throws IOException{
+
+		if (source != null)
+			source.close();
+	}
+
+}
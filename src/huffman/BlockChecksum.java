@@ -0,0 +1,72 @@
+package huffman;
+import java.util.zip.CRC32C;
+
+/**
+ * BLOCK CHECKSUM
+ * CRC32C of a block computed while the block is being written. The decoders report how far
+ * they have written, and every CHUNK bytes the new bytes are added to the checksum while they
+ * are still in cache, instead of reading the whole block again once it is decoded
+ * @author Andres Beltran
+ * @version 1.0
+ */
+
+public class BlockChecksum {
+
+	public static final int CHUNK = 1 << 15;	//Bytes added to the checksum at a time
+
+	private CRC32C checksum = new CRC32C();	//Checksum of the bytes added so far
+	private byte[] data;					//The block being written
+	private int checked;					//Index after the last byte added to the checksum
+
+
+	/**
+	 * Starts the checksum of a new block
+	 * @param data The array the block is written to
+	 * @param offset The index of the first byte of the block
+	 */
+	public void start(byte[] data, int offset){
+		checksum.reset();
+		this.data = data;
+		checked = offset;
+	}
+
+
+	/**
+	 * Adds the bytes written up to a position once there is a full chunk of them
+	 * @param position The index after the last byte written
+	 */
+	public void update(int position){
+		if (position - checked >= CHUNK){
+			checksum.update(data, checked, position - checked);
+			checked = position;
+		}
+	}
+
+
+	/**
+	 * Adds the remaining bytes of the block and returns its checksum
+	 * @param end The index after the last byte of the block
+	 * @return The CRC32C of the block
+	 */
+	public int finish(int end){
+		checksum.update(data, checked, end - checked);
+		checked = end;
+		data = null;
+		return (int) checksum.getValue();
+	}
+
+
+	/**
+	 * Returns the CRC32C of a range of bytes
+	 * @param data The data
+	 * @param offset The index of the first byte
+	 * @param length The number of bytes
+	 * @return The checksum
+	 */
+	public int of(byte[] data, int offset, int length){
+		checksum.reset();
+		checksum.update(data, offset, length);
+		return (int) checksum.getValue();
+	}
+
+}
@@ -0,0 +1,608 @@
+package huffman;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+import huffman.ThirdPartyClasses.BitOutputStream;
+
+/**
+ * BLOCK COMPRESSOR
+ * Splits the input into blocks and compresses each one with <code>LZBlockCodec</code>, or with
+ * <code>WideAlphabetCodec</code> for 16-bit and word symbols
+ * (see <code>BlockFormat</code> for the layout of the output file)
+ * @author Andres Beltran
+ * @version 1.0
+ */
+
+public class BlockCompressor {
+
+	private static double STORE_BITS_PER_BYTE = 7.9;	//Entropy above which blocks are stored without coding
+	private static int MIN_ENTROPY_CHECK = 4096;		//Smaller blocks are too short for a reliable estimate
+	private static double PACKED_ENTROPY_RATIO = 0.9;	//Share of the packed size a code would need to be worth it
+
+	private DataOutputStream output;		//Stores the compressed file
+	private LZBlockCodec codec;				//Encodes each block
+	private WideAlphabetCodec wideCodec;	//Encodes blocks of 16-bit units or words
+	private CompressionConfig config;		//Stores the level, block size and table strategy
+	private byte[] block;					//Stores the block being read from a file
+	private int[] histogram = new int[256];	//Counts the bytes of a block to choose how to encode it
+	private PayloadStream payload = new PayloadStream();	//Stores the encoded block
+	private PayloadStream reusedPayload = new PayloadStream();	//Stores the block coded with the previous tables
+	private CRC32C checksum = new CRC32C();	//Computes the checksum of each block
+	private BlockIndex index = new BlockIndex();	//Stores the position and size of each block
+	private long position;					//Stores the number of bytes of the container written so far
+	private long originalFileSize;			//Stores the size of the original file (bits)
+	private long compressedFileSize;		//Stores the size of the compressed file (bits)
+
+
+	/**
+	 * Initializes the compressor
+	 * @param outputFile The name of the compressed file
+	 * @param level The compression level (1 fastest - 9 best ratio)
+	 * @throws IOException If the file cannot be created
+	 */
+	public BlockCompressor(String outputFile, int level) throws IOException{
+		this(new BufferedOutputStream(new FileOutputStream(outputFile)), level);
+	}
+
+
+	/**
+	 * Initializes a compressor that writes to a stream
+	 * @param out The stream that receives the compressed data
+	 * @param level The compression level (1 fastest - 9 best ratio)
+	 */
+	public BlockCompressor(OutputStream out, int level){
+		this(out, CompressionConfig.forLevel(level));
+	}
+
+
+	/**
+	 * Initializes a compressor that writes to a stream with the given parameters (the
+	 * configuration is copied, so later changes to it have no effect)
+	 * @param out The stream that receives the compressed data
+	 * @param config The compression parameters
+	 */
+	public BlockCompressor(OutputStream out, CompressionConfig config){
+
+		this.config = config.copy();
+		codec = new LZBlockCodec(config.getLevel(), config.getMaxCodeLength());
+		wideCodec = new WideAlphabetCodec(config.getMaxCodeLength());
+		output = new DataOutputStream(out);
+	}
+
+
+	/**
+	 * Chooses between single-stream blocks and blocks split into four interleaved streams,
+	 * which decode faster
+	 * @param interleaved True to write interleaved blocks
+	 */
+	public void setInterleaved(boolean interleaved){
+		config.setInterleaved(interleaved);
+	}
+
+
+	/**
+	 * Writes blocks whose symbol streams are coded with a pluggable entropy coder
+	 * (this takes precedence over interleaving)
+	 * @param coder <code>LZBlockCodec.HUFFMAN_CODER</code>, <code>LZBlockCodec.ANS_CODER</code>, or
+	 * <code>LZBlockCodec.BEST_CODER</code> to choose for each stream of each block
+	 */
+	public void setEntropyCoder(int coder){
+		config.setEntropyCoder(coder);
+	}
+
+
+	/**
+	 * Returns the parameters of this compressor
+	 * @return A copy of the configuration
+	 */
+	public CompressionConfig getConfig(){
+		return config.copy();
+	}
+
+
+	/**
+	 * Compresses a file
+	 * @param inputFile The name of the file to be compressed
+	 * @throws IOException If there is an error with any file
+	 */
+	public void writeFile(String inputFile) throws IOException{
+
+		InputStream input = new FileInputStream(inputFile);
+
+		try {
+			write(input);
+		} finally {
+			input.close();
+		}
+	}
+
+
+	/**
+	 * Compresses a stream into a complete container (the stream is not closed)
+	 * @param input The data to be compressed
+	 * @throws IOException If there is an error with any stream
+	 */
+	public void write(InputStream input) throws IOException{
+
+		if (block == null)
+			block = new byte[config.getBlockSize()];
+
+		writeHeader();
+
+		int length;
+		while ((length = fillBlock(input)) > 0)
+			writeBlock(block, 0, length);
+
+		writeEnd();
+	}
+
+
+	/**
+	 * Starts a new container with the program ID, the format version, the parameters that
+	 * shape the blocks (level, block size, maximum code length and table reuse) and their checksum
+	 * @throws IOException If there is an error writing the file
+	 */
+	public void writeHeader() throws IOException{
+
+		index = new BlockIndex();
+		position = 0;
+		codec.resetTables();
+
+		int blockSize = config.getBlockSize();
+		byte[] header = {(byte)(BlockFormat.PROGRAM_NUMBER >>> 24), (byte)(BlockFormat.PROGRAM_NUMBER >>> 16),
+				(byte)(BlockFormat.PROGRAM_NUMBER >>> 8), (byte) BlockFormat.PROGRAM_NUMBER,
+				(byte) BlockFormat.VERSION, (byte) config.getLevel(),
+				(byte)(blockSize >>> 24), (byte)(blockSize >>> 16), (byte)(blockSize >>> 8), (byte) blockSize,
+				(byte) config.getMaxCodeLength(), (byte) config.getTableReuse()};
+
+		checksum.reset();
+		checksum.update(header, 0, header.length);
+
+		output.write(header);
+		output.writeInt((int) checksum.getValue());
+		compressedFileSize += 8 * BlockFormat.HEADER_SIZE;
+		position += BlockFormat.HEADER_SIZE;
+	}
+
+
+	/**
+	 * Continues a container whose blocks have already been written, so the next blocks and the
+	 * index are written after them (used to append to a compressed file)
+	 * @param blocks The index of the blocks already in the container
+	 */
+	public void resume(BlockIndex blocks){
+		index = blocks;
+		position = blocks.getEnd();
+		codec.resetTables();
+	}
+
+
+	/**
+	 * Adds a block written by another compressor to the index (used when the blocks are
+	 * encoded by several compressors and written in order)
+	 * @param length The original size of the block
+	 * @param frameSize The size of the block, including its type, sizes and checksum
+	 */
+	public void addBlock(int length, int frameSize){
+		index.add(position, length);
+		position += frameSize;
+	}
+
+
+	/**
+	 * Reads the next block from the input
+	 * @param input The file being compressed
+	 * @return The number of bytes read (0 at the end of the file)
+	 * @throws IOException If there is an error reading the file
+	 */
+	private int fillBlock(InputStream input) throws IOException{
+
+		int length = 0;
+		int read;
+
+		while (length < block.length && (read = input.read(block, length, block.length - length)) != -1)
+			length += read;
+
+		return length;
+	}
+
+
+	/**
+	 * Encodes a block and writes it with its type and sizes
+	 * @param data The data to be compressed
+	 * @param offset The index of the first byte
+	 * @param length The number of bytes in the block (at most the configured block size)
+	 * @throws IOException If there is an error writing the file
+	 */
+	public void writeBlock(byte[] data, int offset, int length) throws IOException{
+		writeBlock(encodeBlock(data, offset, length, false));
+	}
+
+
+	/**
+	 * Encodes a block and writes it with its type and sizes into a buffer. When the buffer has
+	 * room for the whole block, the payload is coded in place after the room left for the block
+	 * header, so it is never copied (used by <code>ByteBufferCodec</code>)
+	 * @param data The data to be compressed
+	 * @param offset The index of the first byte
+	 * @param length The number of bytes in the block (at most the configured block size)
+	 * @param target Receives the block at its position, which is advanced past it
+	 * @throws IOException If the block cannot be encoded
+	 * @throws java.nio.BufferOverflowException If <code>target</code> is too small
+	 */
+	public void writeBlock(byte[] data, int offset, int length, ByteBuffer target) throws IOException{
+
+		int start = target.position();
+
+		//A payload that would not fit in the block's length is replaced by the stored data
+		if (target.remaining() >= BlockFormat.BLOCK_HEADER_SIZE + length)
+			payload.setTarget(target, start + BlockFormat.BLOCK_HEADER_SIZE, length);
+
+		try {
+
+			ByteBuffer[] frame = frameBlock(encodeBlock(data, offset, length, false));
+			target.put(frame[0]);
+
+			if (payload.isWindow(frame[1]))
+				target.position(start + BlockFormat.BLOCK_HEADER_SIZE + frame[1].remaining());
+			else
+				target.put(frame[1]);
+
+		} finally {
+			payload.setTarget(null, 0, 0);
+		}
+	}
+
+
+	/**
+	 * Encodes a block without writing it. This does not depend on the blocks before it, so
+	 * several compressors can encode the blocks of a file at the same time, and a single one
+	 * then writes them in order with <code>writeBlock(EncodedBlock)</code>
+	 * @param data The data to be compressed
+	 * @param offset The index of the first byte
+	 * @param length The number of bytes in the block (at most the configured block size)
+	 * @return The encoded block (it does not refer to <code>data</code>)
+	 * @throws IOException If the block cannot be encoded
+	 */
+	public EncodedBlock encodeBlock(byte[] data, int offset, int length) throws IOException{
+		return encodeBlock(data, offset, length, true);
+	}
+
+
+	/**
+	 * Encodes a block without writing it
+	 * @param data The data to be compressed
+	 * @param offset The index of the first byte
+	 * @param length The number of bytes in the block (at most the configured block size)
+	 * @param copy True to give the block its own payload, false to use the buffers of this
+	 * compressor and <code>data</code> (the block must then be written before they change)
+	 * @return The encoded block
+	 * @throws IOException If the block cannot be encoded
+	 */
+	private EncodedBlock encodeBlock(byte[] data, int offset, int length, boolean copy) throws IOException{
+
+		if (length > config.getBlockSize())
+			throw new IllegalArgumentException("Block too large");
+
+		EncodedBlock block = new EncodedBlock();
+		block.length = length;
+		block.payload = copy ? new PayloadStream() : payload;
+		block.payload.reset();
+
+		int type = chooseFastPath(data, offset, length);
+		block.checksum = (int) checksum.getValue();
+
+		//Bytes that look random one at a time can still be predictable as 16-bit units
+		if (type == BlockFormat.STORED_BLOCK && config.getSymbols() == CompressionConfig.UNIT_SYMBOLS)
+			type = -1;
+
+		if (type == BlockFormat.RUN_BLOCK){
+			TinyAlphabetCodec.encodeRun(block.payload, data[offset] & 0xff);
+		}else if (type == BlockFormat.PACKED_BLOCK){
+			TinyAlphabetCodec.encodePacked(block.payload, data, offset, length, histogram);
+		}else if (type == BlockFormat.STORED_BLOCK){
+			//Written below, straight from the data
+		}else if (config.getSymbols() != CompressionConfig.BYTE_SYMBOLS){
+			BitOutputStream writer = new BitOutputStream(block.payload);
+			boolean units = config.getSymbols() == CompressionConfig.UNIT_SYMBOLS;
+			if (units)
+				wideCodec.encodeUnits(writer, data, offset, length);
+			else
+				wideCodec.encodeWords(writer, data, offset, length);
+			writer.flush();
+			type = units ? BlockFormat.UNIT_BLOCK : BlockFormat.WORD_BLOCK;
+		}else if (config.isCoded()){
+			BitOutputStream writer = new BitOutputStream(block.payload);
+			codec.encodeCoded(writer, data, offset, length, config.getEntropyCoder());
+			writer.flush();
+			type = BlockFormat.LZ_CODED_BLOCK;
+		}else if (config.isInterleaved()){
+			codec.encodeInterleaved(block.payload, data, offset, length);
+			type = BlockFormat.LZ_INTERLEAVED_BLOCK;
+		}else{
+			BitOutputStream writer = new BitOutputStream(block.payload);
+			codec.encode(writer, data, offset, length);
+			writer.flush();
+			type = BlockFormat.LZ_BLOCK;
+
+			//Whether the previous tables are reused is decided when the block is written
+			if (config.getTableReuse() >= 0)
+				block.tokens = codec.keepTokens();
+		}
+
+		//Blocks that did not shrink are stored as they are
+		if (type != BlockFormat.STORED_BLOCK && block.payload.size() >= length){
+			type = BlockFormat.STORED_BLOCK;
+			block.tokens = null;
+		}
+
+		if (type == BlockFormat.STORED_BLOCK){
+			block.payload.reset();
+			if (copy)
+				block.payload.write(data, offset, length);
+			else
+				block.data = data;
+			block.offset = offset;
+		}
+
+		block.type = type;
+
+		return block;
+	}
+
+
+	/**
+	 * Writes an encoded block with its type and sizes. Blocks must be written in input order,
+	 * since a block can leave out its tables and reuse those of the last block that wrote them
+	 * @param block The block returned by <code>encodeBlock</code>
+	 * @throws IOException If there is an error writing the file
+	 */
+	public void writeBlock(EncodedBlock block) throws IOException{
+
+		ByteBuffer[] frame = frameBlock(block);
+
+		for (ByteBuffer buffer : frame)
+			output.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+	}
+
+
+	/**
+	 * Adds an encoded block to the container without writing it, so the caller can write the
+	 * blocks itself (for example, several at a time with a gathering write). Blocks must be
+	 * framed in input order, and written in the same order before <code>writeEnd</code>
+	 * @param block The block returned by <code>encodeBlock</code>
+	 * @return The block header (type, sizes and checksum) and the payload, which refers to the
+	 * buffers of the block
+	 * @throws IOException If the block cannot be coded with the previous tables
+	 */
+	public ByteBuffer[] frameBlock(EncodedBlock block) throws IOException{
+
+		PayloadStream blockPayload = block.payload;
+		int type = block.type;
+
+		if (block.tokens != null){
+
+			if (codec.canReuseTables(block.tokens, config.getTableReuse())){
+
+				//Blocks with their own payload may be framed before the previous ones are written
+				PayloadStream reused = block.payload == payload ? reusedPayload : new PayloadStream();
+				reused.reset();
+				BitOutputStream writer = new BitOutputStream(reused);
+				codec.encodeReused(writer, block.tokens);
+				writer.flush();
+
+				if (reused.size() < block.length){
+					blockPayload = reused;
+					type = BlockFormat.LZ_REUSE_BLOCK;
+				}
+			}
+
+			if (type == BlockFormat.LZ_BLOCK)
+				codec.keepTables(block.tokens);
+		}
+
+		ByteBuffer data = block.data != null ? ByteBuffer.wrap(block.data, block.offset, block.length)
+				: blockPayload.toByteBuffer();
+		int payloadLength = data.remaining();
+
+		ByteBuffer header = ByteBuffer.allocate(BlockFormat.BLOCK_HEADER_SIZE);
+		header.put((byte) type).putInt(block.length).putInt(payloadLength).putInt(block.checksum);
+		header.flip();
+
+		originalFileSize += 8L * block.length;
+		addBlock(block.length, BlockFormat.BLOCK_HEADER_SIZE + payloadLength);
+		compressedFileSize += 8L * (BlockFormat.BLOCK_HEADER_SIZE + payloadLength);
+
+		return new ByteBuffer[] {header, data};
+	}
+
+
+	/**
+	 * Counts the bytes of a block and estimates its order-0 entropy, to find blocks that do not
+	 * need matching and coding: blocks with a single byte value, blocks with 2 - 4 values spread
+	 * so evenly that a fixed-width index is as good as a code, and blocks of data that is
+	 * already compressed (or random). The checksum of the block is computed in the same pass,
+	 * a chunk at a time after counting it
+	 * @param data The data to be compressed
+	 * @param offset The index of the first byte
+	 * @param length The number of bytes in the block
+	 * @return <code>BlockFormat.RUN_BLOCK</code>, <code>PACKED_BLOCK</code> or <code>STORED_BLOCK</code>,
+	 * or -1 if the block should be compressed
+	 */
+	private int chooseFastPath(byte[] data, int offset, int length){
+
+		Arrays.fill(histogram, 0);
+		checksum.reset();
+
+		for (int chunk = offset; chunk < offset + length; chunk += BlockChecksum.CHUNK){
+
+			int chunkEnd = Math.min(offset + length, chunk + BlockChecksum.CHUNK);
+			for (int i = chunk; i < chunkEnd; i++)
+				histogram[data[i] & 0xff]++;
+
+			checksum.update(data, chunk, chunkEnd - chunk);
+		}
+
+		//Sum of f * log2(length / f) over every byte value
+		double bits = 0;
+		int symbols = 0;
+
+		for (int frequency : histogram){
+			if (frequency > 0){
+				bits += frequency * Math.log((double) length / frequency);
+				symbols++;
+			}
+		}
+
+		bits /= Math.log(2);
+
+		if (symbols == 1)
+			return BlockFormat.RUN_BLOCK;
+
+		if (symbols >= 2 && symbols <= TinyAlphabetCodec.MAX_SYMBOLS
+				&& bits >= PACKED_ENTROPY_RATIO * TinyAlphabetCodec.getWidth(symbols) * length)
+			return BlockFormat.PACKED_BLOCK;
+
+		if (length >= MIN_ENTROPY_CHECK && bits > STORE_BITS_PER_BYTE * length)
+			return BlockFormat.STORED_BLOCK;
+
+		return -1;
+	}
+
+
+	/**
+	 * Terminates the container with the index of its blocks and the end block
+	 * @throws IOException If there is an error writing the file
+	 */
+	public void writeEnd() throws IOException{
+
+		byte[] entries = index.toByteArray();
+		long indexOffset = position;
+
+		checksum.reset();
+		checksum.update(entries, 0, entries.length);
+
+		output.writeByte(BlockFormat.INDEX_BLOCK);
+		output.writeInt(0);
+		output.writeInt(entries.length);
+		output.writeInt((int) checksum.getValue());
+		output.write(entries);
+
+		output.writeByte(BlockFormat.END_BLOCK);
+		output.writeLong(indexOffset);
+		output.writeInt(BlockFormat.PROGRAM_NUMBER);
+		output.flush();
+
+		int size = BlockFormat.BLOCK_HEADER_SIZE + entries.length + BlockFormat.END_SIZE;
+		position += size;
+		compressedFileSize += 8L * size;
+	}
+
+
+	/**
+	 * Returns the size of the original file
+	 * @return The size of the original file (bits)
+	 */
+	public long getOriginalFileSize(){
+		return originalFileSize;
+	}
+
+
+	/**
+	 * Returns the size of the compressed file
+	 * @return The size of the compressed file (bits)
+	 */
+	public long getCompressedFileSize(){
+		return compressedFileSize;
+	}
+
+
+	/**
+	 * Flushes and closes the compressed file
+	 * @throws IOException If there is an error closing the file
+	 */
+	public void close() throws IOException{
+		output.close();
+	}
+
+
+	/**
+	 * A block encoded by <code>encodeBlock</code>, waiting to be written
+	 */
+	public static class EncodedBlock {
+
+		private int type;						//Type of the block, before deciding on table reuse
+		private int length;						//Number of bytes of the original block
+		private int checksum;					//Checksum of the original block
+		private PayloadStream payload;			//Encoded block (or a copy of the data, for stored blocks)
+		private byte[] data;					//Data of stored blocks that were not copied
+		private int offset;						//Index of the first byte in data
+		private LZBlockCodec.ParsedBlock tokens;	//Tokens of LZ blocks that may reuse the previous tables
+	}
+
+
+	/**
+	 * Stream of the encoded block whose bytes can be written without copying them. It can also
+	 * write straight into a window of a buffer; the bytes that do not fit are only counted,
+	 * since a payload that large is replaced by the stored data
+	 */
+	private static class PayloadStream extends ByteArrayOutputStream {
+
+		private ByteBuffer window;		//Receives the bytes in place, when set
+		private int start;				//Position of the payload in the window
+		private int capacity;			//Number of bytes the window can hold
+
+		void setTarget(ByteBuffer target, int start, int capacity){
+			window = target == null ? null : target.duplicate();
+			this.start = start;
+			this.capacity = capacity;
+		}
+
+		boolean isWindow(ByteBuffer buffer){
+			return window != null && buffer == window;
+		}
+
+		@Override
+		public void write(int b){
+
+			if (window == null){
+				super.write(b);
+				return;
+			}
+
+			if (count < capacity)
+				window.put(start + count, (byte) b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len){
+
+			if (window == null){
+				super.write(b, off, len);
+				return;
+			}
+
+			int fit = Math.min(len, capacity - count);
+
+			if (fit > 0){
+				window.limit(window.capacity()).position(start + count);
+				window.put(b, off, fit);
+			}
+
+			count += len;
+		}
+
+		ByteBuffer toByteBuffer(){
+
+			if (window == null)
+				return ByteBuffer.wrap(buf, 0, count);
+
+			window.limit(start + count).position(start);
+			return window;
+		}
+	}
+
+}
\ No newline at end of file
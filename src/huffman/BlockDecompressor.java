@@ -0,0 +1,573 @@
+package huffman;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * BLOCK DECOMPRESSOR
+ * Decodes files written by <code>BlockCompressor</code>
+ * @author Andres Beltran
+ * @version 1.0
+ */
+
+public class BlockDecompressor {
+
+	private DataInputStream input;			//Stores the compressed file
+	private byte[] block;					//Stores the decoded block when writing to a file
+	private byte[] payload = new byte[0];	//Stores the encoded block
+	private BitReader[] readers = {new BitReader(), new BitReader(), new BitReader(), new BitReader()};	//Read the bits of each payload
+	private BlockChecksum checksum = new BlockChecksum();	//Verifies the checksum of each block
+	private int blockCounter;				//Counts the blocks read so far
+	private int version;					//Stores the format version of the container
+	private CompressionConfig config;		//Stores the parameters recorded in the header
+	private HuffmanTable[] tables;			//Stores the tables of the last LZ_BLOCK, for LZ_REUSE_BLOCKs
+	private long position;					//Stores the number of bytes of the container read so far
+	private long blockOffset;				//Stores the position of the last block read
+	private long end = -1;					//Stores the position after the last end block of a file (-1 for streams)
+
+
+	/**
+	 * Initializes the decompressor. Appending leaves the previous index and end block in the
+	 * file, so the blocks are decoded up to the last complete end block, and the blocks of an
+	 * append that is still running (or was interrupted) after it are ignored
+	 * @param inputFile The name of the compressed file
+	 * @throws IOException If the file cannot be opened
+	 */
+	public BlockDecompressor(String inputFile) throws IOException{
+
+		this(new BufferedInputStream(new FileInputStream(inputFile)));
+
+		try (FileChannel file = FileChannel.open(Paths.get(inputFile), StandardOpenOption.READ)){
+			end = findEnd(file, checksum);
+		} catch (IOException e) {
+			input.close();
+			throw e;
+		}
+	}
+
+
+	/**
+	 * Initializes a decompressor that reads from a stream
+	 * @param in The stream with the compressed data
+	 */
+	public BlockDecompressor(InputStream in){
+		input = new DataInputStream(in);
+	}
+
+
+	/**
+	 * Decodes every block and generates the original file
+	 * @param outputFile The name of the decoded file
+	 * @return 0 if the file was successfully decoded, or -1 if the program's ID does not match
+	 * @throws IOException If there is an error with any file or the file is corrupted
+	 */
+	public int decode(String outputFile) throws IOException{
+
+		try {
+
+			if (!readHeader())
+				return -1;
+
+			FileOutputStream output = new FileOutputStream(outputFile);
+			block = BufferPool.take(config.getBlockSize());
+
+			//Each decoded block goes to the file with a single write
+			try (FileChannel channel = output.getChannel()){
+				ByteBuffer buffer = ByteBuffer.wrap(block);
+				int length;
+
+				while ((length = readBlock(block, 0, block.length)) != -1){
+					buffer.clear().limit(length);
+					while (buffer.hasRemaining())
+						channel.write(buffer);
+				}
+			}
+
+		} finally {
+			input.close();
+			BufferPool.give(block);
+			block = null;
+		}
+
+		return 0;
+	}
+
+
+	/**
+	 * Decodes every block and checks its checksum, without writing anything
+	 * @return 0 if the file is intact, or -1 if the program's ID does not match
+	 * @throws IOException If there is an error reading the file or the file is corrupted
+	 */
+	public int verify() throws IOException{
+
+		try {
+
+			if (!readHeader())
+				return -1;
+
+			block = BufferPool.take(config.getBlockSize());
+
+			while (readBlock(block, 0, block.length) != -1);
+
+		} finally {
+			input.close();
+			BufferPool.give(block);
+			block = null;
+		}
+
+		return 0;
+	}
+
+
+	/**
+	 * Reads and checks the header of the container
+	 * @return True if the file was written by <code>BlockCompressor</code>
+	 * @throws IOException If there is an error reading the file
+	 */
+	public boolean readHeader() throws IOException{
+
+		byte[] header = new byte[BlockFormat.HEADER_SIZE - 4];
+		int headerLength = 6;
+
+		try {
+
+			input.readFully(header, 0, 4);
+
+			if (((header[0] & 0xff) << 24 | (header[1] & 0xff) << 16 | (header[2] & 0xff) << 8 | (header[3] & 0xff))
+					!= BlockFormat.PROGRAM_NUMBER)
+				return false;
+
+			//Version and compression level
+			input.readFully(header, 4, 2);
+
+		} catch (EOFException e) {
+			return false;
+		}
+
+		version = header[4] & 0xff;
+
+		if (version < BlockFormat.OLDEST_VERSION || version > BlockFormat.VERSION)
+			throw new IOException("Unsupported format version");
+
+		//Block size, maximum code length and table reuse
+		if (version == BlockFormat.VERSION){
+			input.readFully(header, 6, 6);
+			headerLength = 12;
+		}
+
+		if (input.readInt() != checksum.of(header, 0, headerLength))
+			throw new IOException("Header checksum mismatch");
+
+		try {
+
+			config = CompressionConfig.forLevel(header[5]);
+
+			if (version == BlockFormat.VERSION){
+				config.setBlockSize(ByteBuffer.wrap(header, 6, 4).getInt());
+				config.setMaxCodeLength(header[10]);
+				config.setTableReuse(header[11]);
+			}else{
+				config.setBlockSize(BlockFormat.BLOCK_SIZE);
+			}
+
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Invalid header");
+		}
+
+		position = headerLength + 4;
+		tables = null;
+		return true;
+	}
+
+
+	/**
+	 * Returns the parameters recorded in the header of the container (version 2 and 3 headers
+	 * only record the level, and their blocks are at most <code>BlockFormat.BLOCK_SIZE</code>)
+	 * @return The configuration, or null before <code>readHeader</code>
+	 */
+	public CompressionConfig getConfig(){
+		return config == null ? null : config.copy();
+	}
+
+
+	/**
+	 * Returns the largest block of the container, so callers can allocate their output
+	 * @return The block size recorded in the header (bytes)
+	 */
+	public int getBlockSize(){
+		return config.getBlockSize();
+	}
+
+
+	/**
+	 * Reads and decodes the next block
+	 * @param output Receives the decoded bytes
+	 * @param offset The index of the first byte to write
+	 * @param capacity The number of bytes available after <code>offset</code>
+	 * @return The number of decoded bytes, or -1 if the end block has been reached
+	 * @throws IOException If the block is corrupted or does not fit in <code>output</code>
+	 */
+	public int readBlock(byte[] output, int offset, int capacity) throws IOException{
+
+		int type = input.readUnsignedByte();
+
+		//The index is only needed to find the blocks from the end of the file
+		while (type == BlockFormat.INDEX_BLOCK || type == BlockFormat.END_BLOCK){
+
+			if (type == BlockFormat.INDEX_BLOCK){
+				skipIndex();
+			}else{
+				readEnd();
+
+				//End blocks before the last one were followed by an append
+				if (position >= end)
+					return -1;
+			}
+
+			type = input.readUnsignedByte();
+		}
+
+		int length = input.readInt();
+		int payloadLength = input.readInt();
+		int expectedChecksum = input.readInt();
+
+		if (length < 0 || length > config.getBlockSize() || payloadLength < 0)
+			throw new IOException("Invalid block header");
+
+		blockOffset = position;
+		position += BlockFormat.BLOCK_HEADER_SIZE + payloadLength;
+
+		if (length > capacity)
+			throw new IOException("Output too small for block");
+
+		checksum.start(output, offset);
+
+		if (type == BlockFormat.STORED_BLOCK){
+
+			//Read straight into the output, adding each chunk to the checksum as it arrives
+			if (payloadLength != length)
+				throw new IOException("Invalid block header");
+
+			for (int read = 0; read < length; ){
+				int chunk = Math.min(length - read, BlockChecksum.CHUNK);
+				input.readFully(output, offset + read, chunk);
+				read += chunk;
+				checksum.update(offset + read);
+			}
+
+		}else{
+
+			if (payload.length < payloadLength)
+				payload = new byte[payloadLength];
+
+			input.readFully(payload, 0, payloadLength);
+			decodePayload(type, payloadLength, output, offset, length);
+		}
+
+		if (checksum.finish(offset + length) != expectedChecksum)
+			throw new IOException("Checksum mismatch in block " + blockCounter);
+
+		blockCounter++;
+		return length;
+	}
+
+
+	/**
+	 * Decodes the payload of a compressed block
+	 * @param type The type of the block
+	 * @param payloadLength The size of the payload
+	 * @param output Receives the decoded bytes
+	 * @param offset The index of the first byte to write
+	 * @param length The number of bytes of the original block
+	 * @throws IOException If the block is corrupted
+	 */
+	private void decodePayload(int type, int payloadLength, byte[] output, int offset, int length) throws IOException{
+
+		if (type == BlockFormat.LZ_BLOCK){
+			readers[0].reset(payload, 0, payloadLength);
+			tables = LZBlockCodec.readTables(readers[0]);
+			LZBlockCodec.decode(readers[0], tables, output, offset, length, checksum);
+		}else if (type == BlockFormat.LZ_REUSE_BLOCK){
+
+			if (tables == null)
+				throw new IOException("Block reuses tables that were not sent");
+
+			readers[0].reset(payload, 0, payloadLength);
+			LZBlockCodec.decode(readers[0], tables, output, offset, length, checksum);
+		}else if (type == BlockFormat.LZ_INTERLEAVED_BLOCK){
+			LZBlockCodec.decodeInterleaved(payload, payloadLength, readers, output, offset, length, checksum);
+		}else if (type == BlockFormat.LZ_CODED_BLOCK){
+			readers[0].reset(payload, 0, payloadLength);
+			LZBlockCodec.decodeCoded(readers[0], output, offset, length, checksum);
+		}else if (type == BlockFormat.UNIT_BLOCK){
+			readers[0].reset(payload, 0, payloadLength);
+			WideAlphabetCodec.decodeUnits(readers[0], output, offset, length, checksum);
+		}else if (type == BlockFormat.WORD_BLOCK){
+			readers[0].reset(payload, 0, payloadLength);
+			WideAlphabetCodec.decodeWords(readers[0], output, offset, length, checksum);
+		}else if (type == BlockFormat.RUN_BLOCK){
+			TinyAlphabetCodec.decodeRun(payload, payloadLength, output, offset, length, checksum);
+		}else if (type == BlockFormat.PACKED_BLOCK){
+			TinyAlphabetCodec.decodePacked(payload, payloadLength, output, offset, length, checksum);
+		}else
+			throw new IOException("Unknown block type " + type);
+	}
+
+
+	/**
+	 * Reads the index block (its type has already been read) and checks its checksum
+	 * @throws IOException If the index is corrupted
+	 */
+	private void skipIndex() throws IOException{
+
+		input.readInt();
+		int payloadLength = input.readInt();
+		int expectedChecksum = input.readInt();
+
+		if (payloadLength < 0)
+			throw new IOException("Invalid block header");
+
+		if (payload.length < payloadLength)
+			payload = new byte[payloadLength];
+
+		input.readFully(payload, 0, payloadLength);
+
+		if (checksum.of(payload, 0, payloadLength) != expectedChecksum)
+			throw new IOException("Checksum mismatch in block index");
+
+		position += BlockFormat.BLOCK_HEADER_SIZE + payloadLength;
+	}
+
+
+	/**
+	 * Reads the rest of the end block (its type has already been read)
+	 * @throws IOException If the end block is corrupted
+	 */
+	private void readEnd() throws IOException{
+
+		//Version 2 containers end with the type only
+		if (version < BlockFormat.INDEX_VERSION)
+			return;
+
+		long indexOffset = input.readLong();
+
+		if (input.readInt() != BlockFormat.PROGRAM_NUMBER || indexOffset < BlockFormat.OLD_HEADER_SIZE || indexOffset >= position)
+			throw new IOException("Invalid end block");
+
+		position += BlockFormat.END_SIZE;
+	}
+
+
+	/**
+	 * Returns the position of the last block read by <code>readBlock</code>
+	 * @return The position in the container
+	 */
+	public long getBlockOffset(){
+		return blockOffset;
+	}
+
+
+	/**
+	 * Returns the number of bytes of the container read so far
+	 * @return The position in the container
+	 */
+	public long getPosition(){
+		return position;
+	}
+
+
+	/**
+	 * Finds the last complete end block of a container by skipping from one block header to the
+	 * next, without reading the payloads. When the file ends with a valid end block and index
+	 * (no append is running), nothing else is read
+	 * @param file The compressed file
+	 * @return The position after the last end block, or -1 if there is none (or the container
+	 * is older than the current version, whose end blocks are always the last)
+	 * @throws IOException If there is an error reading the file
+	 */
+	public static long findEnd(FileChannel file) throws IOException{
+		return findEnd(file, new BlockChecksum());
+	}
+
+
+	/**
+	 * Finds the last complete end block of a container
+	 * @param file The compressed file
+	 * @param checksum Verifies the checksum of the index
+	 * @return The position after the last end block, or -1 if there is none
+	 * @throws IOException If there is an error reading the file
+	 */
+	private static long findEnd(FileChannel file, BlockChecksum checksum) throws IOException{
+
+		long size = file.size();
+
+		if (readIndex(file, size, checksum) != null)
+			return size;
+
+		if (size < BlockFormat.HEADER_SIZE)
+			return -1;
+
+		ByteBuffer header = ByteBuffer.allocate(BlockFormat.HEADER_SIZE);
+		readFully(file, header, 0);
+
+		if (header.getInt(0) != BlockFormat.PROGRAM_NUMBER || header.get(4) != BlockFormat.VERSION)
+			return -1;
+
+		ByteBuffer frame = ByteBuffer.allocate(BlockFormat.BLOCK_HEADER_SIZE);
+		long position = BlockFormat.HEADER_SIZE;
+		long last = -1;
+
+		//Blocks and end blocks have the same header size; a block cut short ends the search
+		while (position + BlockFormat.BLOCK_HEADER_SIZE <= size){
+
+			frame.clear();
+			readFully(file, frame, position);
+			position += BlockFormat.BLOCK_HEADER_SIZE;
+
+			if (frame.get(0) == BlockFormat.END_BLOCK){
+				if (frame.getInt(9) != BlockFormat.PROGRAM_NUMBER)
+					break;
+				last = position;
+			}else if (frame.getInt(5) < 0){
+				break;
+			}else{
+				position += frame.getInt(5);
+			}
+		}
+
+		return last;
+	}
+
+
+	/**
+	 * Reads the index of a complete container through the end block at the end of the file
+	 * @param file The compressed file
+	 * @return The index, or null if the file does not end with a valid end block and index
+	 * @throws IOException If there is an error reading the file
+	 */
+	public static BlockIndex readIndex(FileChannel file) throws IOException{
+		return readIndex(file, file.size());
+	}
+
+
+	/**
+	 * Reads the index of a container through the end block that finishes at a given position
+	 * (the end of the file, or the end found by <code>findEnd</code>)
+	 * @param file The compressed file
+	 * @param size The position after the end block
+	 * @return The index, or null if there is no valid end block and index at that position
+	 * @throws IOException If there is an error reading the file
+	 */
+	public static BlockIndex readIndex(FileChannel file, long size) throws IOException{
+		return readIndex(file, size, new BlockChecksum());
+	}
+
+
+	/**
+	 * Reads the index of a container through the end block that finishes at a given position
+	 * @param file The compressed file
+	 * @param size The position after the end block
+	 * @param checksum Verifies the checksum of the index
+	 * @return The index, or null if there is no valid end block and index at that position
+	 * @throws IOException If there is an error reading the file
+	 */
+	private static BlockIndex readIndex(FileChannel file, long size, BlockChecksum checksum) throws IOException{
+
+		if (size < BlockFormat.HEADER_SIZE + BlockFormat.BLOCK_HEADER_SIZE + BlockFormat.END_SIZE || size > file.size())
+			return null;
+
+		ByteBuffer header = ByteBuffer.allocate(BlockFormat.HEADER_SIZE);
+		readFully(file, header, 0);
+
+		if (header.getInt(0) != BlockFormat.PROGRAM_NUMBER || header.get(4) != BlockFormat.VERSION)
+			return null;
+
+		ByteBuffer end = ByteBuffer.allocate(BlockFormat.END_SIZE);
+		readFully(file, end, size - BlockFormat.END_SIZE);
+
+		long indexOffset = end.getLong(1);
+		long payloadLength = size - BlockFormat.END_SIZE - BlockFormat.BLOCK_HEADER_SIZE - indexOffset;
+
+		if (end.get(0) != BlockFormat.END_BLOCK || end.getInt(9) != BlockFormat.PROGRAM_NUMBER
+				|| indexOffset < BlockFormat.HEADER_SIZE || payloadLength < 0 || payloadLength > Integer.MAX_VALUE)
+			return null;
+
+		ByteBuffer frame = ByteBuffer.allocate(BlockFormat.BLOCK_HEADER_SIZE + (int) payloadLength);
+		readFully(file, frame, indexOffset);
+
+		if (frame.get(0) != BlockFormat.INDEX_BLOCK || frame.getInt(5) != payloadLength)
+			return null;
+
+		if (checksum.of(frame.array(), BlockFormat.BLOCK_HEADER_SIZE, (int) payloadLength) != frame.getInt(9))
+			return null;
+
+		try {
+			return BlockIndex.parse(Arrays.copyOfRange(frame.array(), BlockFormat.BLOCK_HEADER_SIZE, frame.capacity()),
+					(int) payloadLength, indexOffset);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+
+	/**
+	 * Rebuilds the index of a container that has no valid end block and index (for example, when
+	 * the first compression was interrupted), from the blocks that can be decoded and match their
+	 * checksums. The index and end blocks left by earlier appends are skipped
+	 * @param inputFile The name of the compressed file
+	 * @return The index of the valid blocks, which end at <code>getEnd()</code>
+	 * @throws IOException If the file is not a block container or cannot be read
+	 */
+	public static BlockIndex rebuildIndex(String inputFile) throws IOException{
+
+		BlockDecompressor decompressor = new BlockDecompressor(inputFile);
+		BlockIndex index = new BlockIndex();
+
+		try {
+
+			if (!decompressor.readHeader() || decompressor.version != BlockFormat.VERSION)
+				throw new IOException("The file cannot be appended to");
+
+			byte[] block = new byte[decompressor.getBlockSize()];
+			index.setEnd(decompressor.getPosition());
+
+			try {
+				int length;
+				while ((length = decompressor.readBlock(block, 0, block.length)) != -1){
+					index.add(decompressor.getBlockOffset(), length);
+					index.setEnd(decompressor.getPosition());
+				}
+			} catch (IOException e) {
+				//The blocks after the last valid one are discarded
+			}
+
+		} finally {
+			decompressor.input.close();
+		}
+
+		return index;
+	}
+
+
+	/**
+	 * Reads bytes at a given position until the buffer is full
+	 * @param file The file
+	 * @param buffer The buffer to fill
+	 * @param position The position of the first byte
+	 * @throws IOException If the file ends before the buffer is full
+	 */
+	private static void readFully(FileChannel file, ByteBuffer buffer, long position) throws IOException{
+
+		while (buffer.hasRemaining()){
+
+			int read = file.read(buffer, position + buffer.position());
+
+			if (read == -1)
+				throw new EOFException("Unexpected end of file");
+		}
+	}
+
+}
@@ -0,0 +1,62 @@
+package huffman;
+
+/**
+ * BLOCK CONTAINER FORMAT
+ * Constants shared by <code>BlockCompressor</code> and <code>BlockDecompressor</code>.
+ * <P>
+ * The container starts with the program's ID, the format version, the parameters that shape
+ * the blocks (compression level, block size, maximum code length and table-reuse threshold, see
+ * <code>CompressionConfig</code>) and the CRC32C of those fields, followed by a sequence of blocks.
+ * Version 2 and 3 headers only hold the level, and their blocks are at most <code>BLOCK_SIZE</code>. Every block starts with its type,
+ * the size of the original data, the size of its payload (in bytes) and the CRC32C of the original
+ * data, so blocks can be skipped without decoding them and verified after decoding.
+ * <P>
+ * After the last block comes an index block, whose payload holds the position and original size
+ * of every block (see <code>BlockIndex</code>), and the end block: its type, the position of the
+ * index block and the program's ID. The end block is always the last <code>END_SIZE</code> bytes
+ * of a complete container, so the index can be found from the end of the file. Appending writes
+ * new blocks, a new index (of every block) and a new end block after the old end block, which is
+ * then skipped like the old index: a file is decoded up to its last end block. Version 2
+ * containers have no index and their end block is the type only.
+ * <P>
+ * Archives pack several containers into one file: the archive's ID and version, the containers
+ * one after another, the central directory (see <code>ArchiveEntry</code>) and an end record
+ * with the number of entries, the position of the directory, its CRC32C and the archive's ID
+ * @author Andres Beltran
+ * @version 1.0
+ */
+
+public class BlockFormat {
+
+	public static final int PROGRAM_NUMBER = 1999;		//ID of the block container (1998 is the single-stream format)
+	public static final int VERSION = 4;				//Format version
+	public static final int OLDEST_VERSION = 2;			//Oldest version that can still be read
+	public static final int INDEX_VERSION = 3;			//First version with an index and end block
+	public static final int HEADER_SIZE = 16;			//Program ID, version, level, block size, code length, reuse, checksum
+	public static final int OLD_HEADER_SIZE = 10;		//Program ID, version, level and checksum (versions 2 and 3)
+	public static final int BLOCK_HEADER_SIZE = 13;		//Type, original size, payload size and checksum
+	public static final int END_SIZE = 13;				//Type, position of the index and program ID
+	public static final int BLOCK_SIZE = 1 << 20;		//Default block size (and the only one before version 4)
+
+	public static final int ARCHIVE_NUMBER = 2000;		//ID of archives of several containers
+	public static final int ARCHIVE_VERSION = 1;		//Archive format version
+	public static final int ARCHIVE_HEADER_SIZE = 5;	//Archive ID and version
+	public static final int ARCHIVE_END_SIZE = 20;		//Number of entries, position and checksum of the directory, ID
+
+	public static final int END_BLOCK = 0;				//Terminates the container
+	public static final int LZ_BLOCK = 1;				//LZ77 tokens coded with Huffman tables (LZBlockCodec)
+	public static final int LZ_INTERLEAVED_BLOCK = 2;	//Same tokens split into four interleaved streams
+	public static final int LZ_CODED_BLOCK = 3;			//Separate symbol streams, each with its own entropy coder
+	public static final int INDEX_BLOCK = 4;			//Position and size of every block (BlockIndex)
+	public static final int STORED_BLOCK = 5;			//Original data, for blocks that coding would make larger
+	public static final int RUN_BLOCK = 6;				//A single byte value repeated (TinyAlphabetCodec)
+	public static final int PACKED_BLOCK = 7;			//2 - 4 byte values with a fixed-width index per byte
+	public static final int LZ_REUSE_BLOCK = 8;			//LZ_BLOCK without tables, using those of the last LZ_BLOCK
+	public static final int UNIT_BLOCK = 9;				//16-bit units coded with a Huffman table (WideAlphabetCodec)
+	public static final int WORD_BLOCK = 10;			//Bytes and dictionary words coded with a Huffman table
+
+
+	private BlockFormat(){
+	}
+
+}
@@ -0,0 +1,152 @@
+package huffman;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * BLOCK INDEX
+ * Position (from the start of the container) and original size of every block of a container.
+ * It is written at the end of the container, so a compressor can find where the compressed data
+ * ends and how much of the original file it covers without decoding any block
+ * @author Andres Beltran
+ * @version 1.0
+ */
+
+public class BlockIndex {
+
+	private static int ENTRY_SIZE = 12;		//Position (8 bytes) and original size (4 bytes) of a block
+
+	private long[] offsets = new long[16];	//Stores the position of each block
+	private int[] lengths = new int[16];	//Stores the original size of each block
+	private int count;						//Number of blocks
+	private long originalSize;				//Sum of the original sizes (bytes)
+	private long end;						//Position where the next block is written
+
+
+	/**
+	 * Adds a block after the previous ones
+	 * @param offset The position of the block in the container
+	 * @param length The original size of the block
+	 */
+	public void add(long offset, int length){
+
+		if (count == offsets.length){
+			offsets = Arrays.copyOf(offsets, count * 2);
+			lengths = Arrays.copyOf(lengths, count * 2);
+		}
+
+		offsets[count] = offset;
+		lengths[count] = length;
+		count++;
+		originalSize += length;
+	}
+
+
+	/**
+	 * Returns the number of blocks
+	 * @return The number of blocks
+	 */
+	public int getCount(){
+		return count;
+	}
+
+
+	/**
+	 * Returns the position of a block
+	 * @param block The number of the block
+	 * @return The position of the block in the container
+	 */
+	public long getOffset(int block){
+		return offsets[block];
+	}
+
+
+	/**
+	 * Returns the original size of a block
+	 * @param block The number of the block
+	 * @return The original size (bytes)
+	 */
+	public int getLength(int block){
+		return lengths[block];
+	}
+
+
+	/**
+	 * Returns the size of the data covered by the blocks
+	 * @return The original size (bytes)
+	 */
+	public long getOriginalSize(){
+		return originalSize;
+	}
+
+
+	/**
+	 * Returns the position after the last block (or, when appending, after the end block that
+	 * closes them), where the next block or the index is written
+	 * @return The position in the container
+	 */
+	public long getEnd(){
+		return end;
+	}
+
+
+	/**
+	 * Sets the position where the next block or the index is written
+	 * @param end The position in the container
+	 */
+	public void setEnd(long end){
+		this.end = end;
+	}
+
+
+	/**
+	 * Returns the index as the payload of an index block
+	 * @return The entries, in block order
+	 */
+	public byte[] toByteArray(){
+
+		ByteBuffer payload = ByteBuffer.allocate(count * ENTRY_SIZE);
+
+		for (int i = 0; i < count; i++){
+			payload.putLong(offsets[i]);
+			payload.putInt(lengths[i]);
+		}
+
+		return payload.array();
+	}
+
+
+	/**
+	 * Reads the payload of an index block
+	 * @param payload The entries, in block order
+	 * @param length The size of the payload
+	 * @param end The position after the last block
+	 * @return The index
+	 * @throws IOException If the entries are not valid
+	 */
+	public static BlockIndex parse(byte[] payload, int length, long end) throws IOException{
+
+		if (length % ENTRY_SIZE != 0)
+			throw new IOException("Invalid block index");
+
+		ByteBuffer entries = ByteBuffer.wrap(payload, 0, length);
+		BlockIndex index = new BlockIndex();
+		long previous = -1;
+
+		while (entries.hasRemaining()){
+
+			long offset = entries.getLong();
+			int blockLength = entries.getInt();
+
+			if (offset <= previous || offset >= end || blockLength < 0 || blockLength > CompressionConfig.MAX_BLOCK_SIZE)
+				throw new IOException("Invalid block index");
+
+			index.add(offset, blockLength);
+			previous = offset;
+		}
+
+		index.setEnd(end);
+		return index;
+	}
+
+}
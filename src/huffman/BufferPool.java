@@ -0,0 +1,64 @@
+package huffman;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * BUFFER POOL
+ * Keeps the block buffers of finished jobs, so a process that compresses and decompresses
+ * many files (see <code>HuffmanDaemon</code>) does not allocate and clear new blocks for each
+ * one; small files still get whole blocks, so for them this is most of the setup. At most
+ * MAX_POOLED_BYTES are kept, and the oldest buffers are dropped first
+ * @author Andres Beltran
+ * @version 1.0
+ */
+
+public class BufferPool {
+
+	private static long MAX_POOLED_BYTES = 64L << 20;			//Most memory kept in the pool
+	private static ArrayDeque<byte[]> buffers = new ArrayDeque<>();	//Stores the unused buffers, oldest first
+	private static long pooledBytes;							//Stores the size of every buffer in the pool
+
+
+	private BufferPool(){
+	}
+
+
+	/**
+	 * Returns a buffer from the pool, or a new one if there is none of that size
+	 * @param size The number of bytes
+	 * @return The buffer (its contents are not cleared)
+	 */
+	public static synchronized byte[] take(int size){
+
+		Iterator<byte[]> iterator = buffers.descendingIterator();
+
+		while (iterator.hasNext()){
+			byte[] buffer = iterator.next();
+			if (buffer.length == size){
+				iterator.remove();
+				pooledBytes -= size;
+				return buffer;
+			}
+		}
+
+		return new byte[size];
+	}
+
+
+	/**
+	 * Returns a buffer to the pool (it must not be used afterwards)
+	 * @param buffer The buffer
+	 */
+	public static synchronized void give(byte[] buffer){
+
+		if (buffer == null || buffer.length > MAX_POOLED_BYTES)
+			return;
+
+		while (pooledBytes + buffer.length > MAX_POOLED_BYTES)
+			pooledBytes -= buffers.removeFirst().length;
+
+		buffers.addLast(buffer);
+		pooledBytes += buffer.length;
+	}
+
+}
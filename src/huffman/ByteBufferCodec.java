@@ -0,0 +1,228 @@
+package huffman;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * BYTE BUFFER CODEC
+ * Compresses and decompresses in-memory data (heap or direct buffers) using the block container,
+ * without going through files. Heap buffers are read and written in place, and the payload of
+ * each block is coded straight into the destination buffer, heap or direct. The match finder
+ * and the decoders need random access to the original data, so a direct source (when
+ * compressing) or destination (when decompressing) goes through a block-sized scratch array.
+ * Each thread keeps the compressor of the last level it used, so compressing many small
+ * buffers does not build a new match finder and tables every time; <code>release</code> drops
+ * it (for example, before returning a thread to a pool). Blocks are always
+ * <code>BlockFormat.BLOCK_SIZE</code> bytes, whatever the level, so <code>maxCompressedLength</code>
+ * does not depend on it
+ * @author Andres Beltran
+ * @version 1.0
+ */
+
+public class ByteBufferCodec {
+
+	private static int INDEX_ENTRY_SIZE = 12;		//Position and size of each block in the index
+	private static ThreadLocal<CachedCompressor> compressors = new ThreadLocal<>();	//Compressor of each thread
+
+
+	private ByteBufferCodec(){
+	}
+
+
+	/**
+	 * Returns the largest size the compressed form of <code>length</code> bytes can take,
+	 * so callers can preallocate the destination buffer. Blocks that would grow are stored,
+	 * so this is the original size plus the container's fixed overhead
+	 * @param length The number of bytes to be compressed
+	 * @return The maximum compressed size (bytes)
+	 */
+	public static long maxCompressedLength(long length){
+
+		long blocks = (length + BlockFormat.BLOCK_SIZE - 1) / BlockFormat.BLOCK_SIZE;
+		return BlockFormat.HEADER_SIZE + BlockFormat.BLOCK_HEADER_SIZE + BlockFormat.END_SIZE
+				+ blocks * (BlockFormat.BLOCK_HEADER_SIZE + INDEX_ENTRY_SIZE) + length;
+	}
+
+
+	/**
+	 * Compresses the remaining bytes of <code>src</code> into <code>dst</code>. On success
+	 * the position of <code>src</code> reaches its limit and the position of <code>dst</code>
+	 * is advanced past the compressed data
+	 * @param src The data to be compressed
+	 * @param dst Receives the compressed data
+	 * @param level The compression level (1 fastest - 9 best ratio)
+	 * @return The number of bytes written to <code>dst</code>
+	 * @throws BufferOverflowException If <code>dst</code> is too small
+	 */
+	public static int compress(ByteBuffer src, ByteBuffer dst, int level){
+
+		int start = dst.position();
+		CachedCompressor cached = compressors.get();
+
+		if (cached == null || cached.level != level){
+			cached = new CachedCompressor(level);
+			compressors.set(cached);
+		}
+
+		BlockCompressor compressor = cached.compressor;
+		byte[] scratch = src.hasArray() ? null : BufferPool.take(BlockFormat.BLOCK_SIZE);
+		cached.output.buffer = dst;
+
+		try {
+
+			compressor.writeHeader();
+
+			while (src.hasRemaining()){
+
+				int length = Math.min(src.remaining(), BlockFormat.BLOCK_SIZE);
+
+				if (scratch == null){
+					compressor.writeBlock(src.array(), src.arrayOffset() + src.position(), length, dst);
+					src.position(src.position() + length);
+				}else{
+					src.get(scratch, 0, length);
+					compressor.writeBlock(scratch, 0, length, dst);
+				}
+			}
+
+			compressor.writeEnd();
+
+		} catch (IOException e) {
+			//Only the destination buffer is written, which never throws IOException
+			throw new IllegalStateException(e);
+		} finally {
+			cached.output.buffer = null;
+			if (scratch != null)
+				BufferPool.give(scratch);
+		}
+
+		return dst.position() - start;
+	}
+
+
+	/**
+	 * Drops the compressor kept by the calling thread, with its match finder and tables
+	 */
+	public static void release(){
+		compressors.remove();
+	}
+
+
+	/**
+	 * Decompresses a container from <code>src</code> into <code>dst</code>
+	 * @param src The compressed data
+	 * @param dst Receives the original data
+	 * @return The number of bytes written to <code>dst</code>
+	 * @throws IOException If <code>src</code> is not a valid container or <code>dst</code> is too small
+	 */
+	public static int decompress(ByteBuffer src, ByteBuffer dst) throws IOException{
+
+		int start = dst.position();
+		BlockDecompressor decompressor = new BlockDecompressor(new ByteBufferInputStream(src));
+
+		if (!decompressor.readHeader())
+			throw new IOException("The data was not compressed by this program");
+
+		int length;
+
+		if (dst.hasArray()){
+
+			//Decodes straight into the destination array
+			while ((length = decompressor.readBlock(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining())) != -1)
+				dst.position(dst.position() + length);
+
+		}else{
+
+			byte[] scratch = BufferPool.take(decompressor.getBlockSize());
+
+			try {
+				while ((length = decompressor.readBlock(scratch, 0, scratch.length)) != -1){
+
+					if (length > dst.remaining())
+						throw new IOException("Output too small for block");
+
+					dst.put(scratch, 0, length);
+				}
+			} finally {
+				BufferPool.give(scratch);
+			}
+		}
+
+		return dst.position() - start;
+	}
+
+
+	/**
+	 * The compressor kept by a thread. <code>writeHeader</code> starts each container from
+	 * scratch, so nothing carries over from the previous call
+	 */
+	private static class CachedCompressor {
+
+		private int level;				//Compression level of the compressor
+		private ByteBufferOutputStream output = new ByteBufferOutputStream();	//Points to the destination of the current call
+		private BlockCompressor compressor;	//Writes the header and the blocks
+
+		CachedCompressor(int level){
+
+			CompressionConfig config = CompressionConfig.forLevel(level);
+			config.setBlockSize(BlockFormat.BLOCK_SIZE);
+			this.level = level;
+			compressor = new BlockCompressor(output, config);
+		}
+	}
+
+
+	/**
+	 * Output stream that writes the container header and end into a ByteBuffer (the blocks are
+	 * written by <code>BlockCompressor</code> itself)
+	 */
+	private static class ByteBufferOutputStream extends OutputStream {
+
+		private ByteBuffer buffer;
+
+		@Override
+		public void write(int b){
+			buffer.put((byte) b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len){
+			buffer.put(b, off, len);
+		}
+	}
+
+
+	/**
+	 * Input stream that reads from a ByteBuffer, advancing its position
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+
+		private ByteBuffer buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer){
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read(){
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len){
+
+			if (len == 0)
+				return 0;
+
+			if (!buffer.hasRemaining())
+				return -1;
+
+			len = Math.min(len, buffer.remaining());
+			buffer.get(b, off, len);
+			return len;
+		}
+	}
+
+}
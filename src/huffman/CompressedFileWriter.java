@@ -31,7 +31,7 @@ public class CompressedFileWriter extends BitOutputStream {
 	 */
 	public CompressedFileWriter(String outputFile, String inputFile, String[] encodingArray, int programNumber, int nonZeroCharacters) throws IOException{
 		
-		super(new FileOutputStream(outputFile));
+		super(new BufferedOutputStream(new FileOutputStream(outputFile)));
 		this.inputFile = inputFile;
 		this.encodingArray = encodingArray;
 		this.nonZeroCharacters = nonZeroCharacters;
@@ -53,7 +53,9 @@ public class CompressedFileWriter extends BitOutputStream {
 	
 	
 	/**
-	 * Stores the Huffman Tree in the compressed file using Preorder Traversal
+	 * Stores the Huffman Tree in the compressed file using Preorder Traversal. The nodes still
+	 * to be written are kept on an explicit stack (at most one per level, and a tree with n
+	 * leaves has at most n - 1 levels), so deep trees cannot overflow the call stack
 	 * @param rootNode The root of the Huffman Tree
 	 */
 	private void writeHeaderTree(HuffmanNode rootNode){
@@ -61,23 +63,32 @@ public class CompressedFileWriter extends BitOutputStream {
 		if (rootNode == null)
 			return;
 		
-		//A leaf-node is represented as 1, followed by 9 bits that represent the character stored in the node
-		if (rootNode.getLeft() == null && rootNode.getRight() == null 
-				&& rootNode.getInChar() != null){
+		HuffmanNode[] stack = new HuffmanNode[nonZeroCharacters + 1];
+		int top = 0;
+		stack[top++] = rootNode;
+		
+		while (top > 0){
 			
-			write(1,1);
-			write(9, (int)rootNode.getInChar());
-			compressedFileSize += 10;
-			return;
+			HuffmanNode node = stack[--top];
+			
+			//A leaf-node is represented as 1, followed by 9 bits that represent the character stored in the node
+			if (node.getLeft() == null && node.getRight() == null 
+					&& node.getInChar() != null){
+				
+				write(1,1);
+				write(9, (int)node.getInChar());
+				compressedFileSize += 10;
+				continue;
+				
+			}
 			
+			//A non-leaf node is represented as 0, followed by its left and then its right subtree
+			write(1,0);
+			compressedFileSize ++;
+			stack[top++] = node.getRight();
+			stack[top++] = node.getLeft();
 		}
 		
-		//A non-leaf node is represented as 0
-		write(1,0);
-		compressedFileSize ++;
-		writeHeaderTree(rootNode.getLeft());
-		writeHeaderTree(rootNode.getRight());
-		
 	}
 	
 	
@@ -89,29 +100,53 @@ public class CompressedFileWriter extends BitOutputStream {
 	 */
 	private void writeBody (String inputFile, String[] encodingArray) throws IOException{
 		
+		//Converts each code to an integer once, so it is written with a single call
+		int[] codes = new int[encodingArray.length];
+		int[] lengths = new int[encodingArray.length];
+		
+		for (int i = 0; i < encodingArray.length; i++){
+			if (encodingArray[i] != null && encodingArray[i].length() < BITS_PER_INT){
+				lengths[i] = encodingArray[i].length();
+				codes[i] = lengths[i] == 0 ? 0 : (int) Long.parseLong(encodingArray[i], 2);
+			}
+		}
+		
 		FileReader toRead = new FileReader(inputFile);
-	   
-		int i;
-		while ((i = toRead.read()) != -1){ 						//for each character
-			originalFileSize += 8;  							//each character is 8 bits for ASCII
-			compressedFileSize += encodingArray[i].length();	//variable-length for Huffman coding
-			writeCharacter(encodingArray[i]); 					//Writes the bits for this character
+		char[] characters = new char[1 << 13];
+		int read;
+		
+		while ((read = toRead.read(characters)) != -1){			//for each block of characters
+			for (int j = 0; j < read; j++){
+				int i = characters[j];
+				originalFileSize += 8;  							//each character is 8 bits for ASCII
+				compressedFileSize += encodingArray[i].length();	//variable-length for Huffman coding
+				writeCharacter(i, codes, lengths);					//Writes the bits for this character
+			}
 		}
 		
-		writeCharacter(encodingArray[256]); 					//Writes the Pseudo-EOF-character at the end
+		writeCharacter(256, codes, lengths); 					//Writes the Pseudo-EOF-character at the end
 		toRead.close();
 		
 	}
 	
 	
 	/**
-	 * Helper method to write a character's binary code one bit at a time
-	 * @param characterCode The binary code that represents a specific character
+	 * Helper method to write a character's binary code
+	 * @param character The character
+	 * @param codes The code of each character (as an integer)
+	 * @param lengths The length of each code (0 if it is too long for a single write)
 	 */
-	private void writeCharacter(String characterCode){
+	private void writeCharacter(int character, int[] codes, int[] lengths){
+		
+		if (lengths[character] > 0){
+			write(lengths[character], codes[character]);
+			return;
+		}
 		
+		//Codes of 32 bits or more (very skewed files) are written one bit at a time
+		String characterCode = encodingArray[character];
 		for (int i = 0; i < characterCode.length(); i++){
-			write(1, Integer.parseInt(String.valueOf(characterCode.charAt(i))));
+			write(1, characterCode.charAt(i) - '0');
 		}
 	}
 	
@@ -0,0 +1,373 @@
+package huffman;
+
+/**
+ * COMPRESSION CONFIGURATION
+ * Every parameter of the block container's compressor. <code>forLevel</code> gives the preset
+ * of each level, from fast ingest (small blocks, short codes, tables reused when close enough,
+ * memory-mapped input) to dense archives (large blocks, unrestricted codes, fresh tables for
+ * every block), and each parameter can then be overridden.
+ * <P>
+ * The parameters that shape the compressed data (level, block size, table reuse and maximum
+ * code length) are recorded in the container header; the number of threads and the I/O mode
+ * are not, so the same settings give the same file on every machine. Neither is the symbol
+ * model, since every block records its own type
+ * @author Andres Beltran
+ * @version 1.0
+ */
+
+public class CompressionConfig {
+
+	public static final int STREAM_IO = 0;				//Reads the input with channel reads
+	public static final int MAPPED_IO = 1;				//Reads the input through memory-mapped regions
+	public static final int NO_TABLE_REUSE = -1;		//Every block gets its own tables
+	public static final int BYTE_SYMBOLS = 0;			//Bytes and LZ77 matches (LZBlockCodec)
+	public static final int UNIT_SYMBOLS = 1;			//16-bit units (WideAlphabetCodec)
+	public static final int WORD_SYMBOLS = 2;			//Bytes and a dictionary of frequent words
+	public static final int MIN_BLOCK_SIZE = 1 << 12;	//Smallest block (4 KB)
+	public static final int MAX_BLOCK_SIZE = 1 << 23;	//Largest block (8 MB)
+	public static final int MIN_CODE_LENGTH = 9;		//Shortest limit that still fits 286 symbols
+	public static final int MAX_CODE_LENGTH = 31;		//Longest code the decoder accepts
+
+	private int level;				//Stores the compression level (1 fastest - 9 best ratio)
+	private int blockSize;			//Stores the maximum number of original bytes per block
+	private int threads;			//Stores the number of blocks encoded at the same time
+	private int tableReuse;			//Stores how much larger (%) the previous tables may code a block
+	private int maxCodeLength;		//Stores the longest Huffman code
+	private int ioMode;				//Stores how the input is read
+	private boolean interleaved;	//Stores whether blocks are split into four streams
+	private boolean coded;			//Stores whether blocks use a pluggable entropy coder
+	private int entropyCoder;		//Stores the coder of coded blocks
+	private int symbols;			//Stores the symbol model of the blocks
+
+
+	/**
+	 * Returns the preset of a level
+	 * @param level The compression level (1 fastest - 9 best ratio)
+	 * @return The configuration
+	 */
+	public static CompressionConfig forLevel(int level){
+
+		if (level < 1 || level > 9)
+			throw new IllegalArgumentException("Invalid level " + level);
+
+		CompressionConfig config = new CompressionConfig();
+		config.level = level;
+		config.threads = Runtime.getRuntime().availableProcessors();
+
+		if (level <= 3){
+			config.blockSize = 1 << 18;
+			config.tableReuse = 10;
+			config.maxCodeLength = 12;
+			config.ioMode = MAPPED_IO;
+		}else if (level <= 6){
+			config.blockSize = BlockFormat.BLOCK_SIZE;
+			config.tableReuse = 2;
+			config.maxCodeLength = 15;
+			config.ioMode = STREAM_IO;
+		}else{
+			config.blockSize = 1 << 22;
+			config.tableReuse = NO_TABLE_REUSE;
+			config.maxCodeLength = MAX_CODE_LENGTH;
+			config.ioMode = STREAM_IO;
+		}
+
+		return config;
+	}
+
+
+	/**
+	 * Returns a copy of this configuration
+	 * @return The copy
+	 */
+	public CompressionConfig copy(){
+
+		CompressionConfig copy = new CompressionConfig();
+		copy.level = level;
+		copy.blockSize = blockSize;
+		copy.threads = threads;
+		copy.tableReuse = tableReuse;
+		copy.maxCodeLength = maxCodeLength;
+		copy.ioMode = ioMode;
+		copy.interleaved = interleaved;
+		copy.coded = coded;
+		copy.entropyCoder = entropyCoder;
+		copy.symbols = symbols;
+		return copy;
+	}
+
+
+	/**
+	 * Applies an option of the command line
+	 * @param option --block-size=N[k|m], --threads=N, --table-reuse=N|off, --max-code-length=N,
+	 * --io=stream|mmap, --interleaved, --coder=huffman|ans|auto or --symbols=bytes|16|words
+	 * @return False if the option is not a configuration option
+	 * @throws IllegalArgumentException If the value of the option is not valid
+	 */
+	public boolean parseOption(String option){
+
+		String value = option.substring(option.indexOf('=') + 1);
+
+		try {
+
+			if (option.startsWith("--block-size="))
+				setBlockSize(parseSize(value));
+			else if (option.startsWith("--threads="))
+				setThreads(Integer.parseInt(value));
+			else if (option.startsWith("--table-reuse="))
+				setTableReuse(value.equals("off") ? NO_TABLE_REUSE : Integer.parseInt(value));
+			else if (option.startsWith("--max-code-length="))
+				setMaxCodeLength(Integer.parseInt(value));
+			else if (option.equals("--io=stream"))
+				setIoMode(STREAM_IO);
+			else if (option.equals("--io=mmap"))
+				setIoMode(MAPPED_IO);
+			else if (option.equals("--interleaved"))
+				setInterleaved(true);
+			else if (option.equals("--coder=huffman"))
+				setEntropyCoder(LZBlockCodec.HUFFMAN_CODER);
+			else if (option.equals("--coder=ans"))
+				setEntropyCoder(LZBlockCodec.ANS_CODER);
+			else if (option.equals("--coder=auto"))
+				setEntropyCoder(LZBlockCodec.BEST_CODER);
+			else if (option.equals("--symbols=bytes"))
+				setSymbols(BYTE_SYMBOLS);
+			else if (option.equals("--symbols=16"))
+				setSymbols(UNIT_SYMBOLS);
+			else if (option.equals("--symbols=words"))
+				setSymbols(WORD_SYMBOLS);
+			else
+				return false;
+
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid value in " + option);
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * Reads a size with an optional k or m suffix
+	 * @param value The size
+	 * @return The number of bytes
+	 * @throws NumberFormatException If the value is not a number, or does not fit in an int
+	 */
+	private static int parseSize(String value){
+
+		String lower = value.toLowerCase();
+		int shift = 0;
+
+		if (lower.endsWith("k"))
+			shift = 10;
+		else if (lower.endsWith("m"))
+			shift = 20;
+
+		if (shift > 0)
+			lower = lower.substring(0, lower.length() - 1);
+
+		long size = Long.parseLong(lower);
+
+		if (size < 0 || size > Integer.MAX_VALUE >> shift)
+			throw new NumberFormatException("Size out of range: " + value);
+
+		return (int)(size << shift);
+	}
+
+
+	/**
+	 * Returns the compression level
+	 * @return The level (1 fastest - 9 best ratio)
+	 */
+	public int getLevel(){
+		return level;
+	}
+
+
+	/**
+	 * Returns the block size
+	 * @return The maximum number of original bytes per block
+	 */
+	public int getBlockSize(){
+		return blockSize;
+	}
+
+
+	/**
+	 * Sets the block size (smaller blocks start faster and use less memory, larger ones
+	 * spend less on tables)
+	 * @param blockSize The maximum number of original bytes per block
+	 */
+	public void setBlockSize(int blockSize){
+
+		if (blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE)
+			throw new IllegalArgumentException("Block size must be between " + MIN_BLOCK_SIZE + " and " + MAX_BLOCK_SIZE);
+
+		this.blockSize = blockSize;
+	}
+
+
+	/**
+	 * Returns the number of threads
+	 * @return The number of blocks encoded at the same time
+	 */
+	public int getThreads(){
+		return threads;
+	}
+
+
+	/**
+	 * Sets the number of threads
+	 * @param threads The number of blocks encoded at the same time
+	 */
+	public void setThreads(int threads){
+
+		if (threads < 1)
+			throw new IllegalArgumentException("At least one thread is needed");
+
+		this.threads = threads;
+	}
+
+
+	/**
+	 * Returns the table-reuse threshold
+	 * @return The percentage, or <code>NO_TABLE_REUSE</code>
+	 */
+	public int getTableReuse(){
+		return tableReuse;
+	}
+
+
+	/**
+	 * Sets how much larger a block may get when coded with the tables of the previous block
+	 * instead of its own tables (including their header). Reused tables are not written and
+	 * do not have to be rebuilt by the decoder. The choice is made when the blocks are written
+	 * in order, so it does not depend on the number of threads
+	 * @param tableReuse The percentage (0 - 100), or <code>NO_TABLE_REUSE</code>
+	 */
+	public void setTableReuse(int tableReuse){
+
+		if (tableReuse != NO_TABLE_REUSE && (tableReuse < 0 || tableReuse > 100))
+			throw new IllegalArgumentException("Table reuse must be between 0 and 100, or off");
+
+		this.tableReuse = tableReuse;
+	}
+
+
+	/**
+	 * Returns the maximum code length
+	 * @return The longest Huffman code (bits)
+	 */
+	public int getMaxCodeLength(){
+		return maxCodeLength;
+	}
+
+
+	/**
+	 * Sets the maximum code length (short codes decode with a single table lookup, at a small
+	 * cost in ratio)
+	 * @param maxCodeLength The longest Huffman code (bits)
+	 */
+	public void setMaxCodeLength(int maxCodeLength){
+
+		if (maxCodeLength < MIN_CODE_LENGTH || maxCodeLength > MAX_CODE_LENGTH)
+			throw new IllegalArgumentException("Maximum code length must be between " + MIN_CODE_LENGTH + " and " + MAX_CODE_LENGTH);
+
+		this.maxCodeLength = maxCodeLength;
+	}
+
+
+	/**
+	 * Returns the I/O mode
+	 * @return <code>STREAM_IO</code> or <code>MAPPED_IO</code>
+	 */
+	public int getIoMode(){
+		return ioMode;
+	}
+
+
+	/**
+	 * Sets how the input is read
+	 * @param ioMode <code>STREAM_IO</code> or <code>MAPPED_IO</code>
+	 */
+	public void setIoMode(int ioMode){
+
+		if (ioMode != STREAM_IO && ioMode != MAPPED_IO)
+			throw new IllegalArgumentException("Invalid I/O mode");
+
+		this.ioMode = ioMode;
+	}
+
+
+	/**
+	 * Checks if blocks are split into four interleaved streams
+	 * @return True for interleaved blocks
+	 */
+	public boolean isInterleaved(){
+		return interleaved;
+	}
+
+
+	/**
+	 * Chooses between single-stream blocks and blocks split into four interleaved streams,
+	 * which decode faster
+	 * @param interleaved True to write interleaved blocks
+	 */
+	public void setInterleaved(boolean interleaved){
+		this.interleaved = interleaved;
+	}
+
+
+	/**
+	 * Checks if blocks use a pluggable entropy coder
+	 * @return True for coded blocks
+	 */
+	public boolean isCoded(){
+		return coded;
+	}
+
+
+	/**
+	 * Returns the coder of coded blocks
+	 * @return The coder ID, or <code>LZBlockCodec.BEST_CODER</code>
+	 */
+	public int getEntropyCoder(){
+		return entropyCoder;
+	}
+
+
+	/**
+	 * Writes blocks whose symbol streams are coded with a pluggable entropy coder
+	 * (this takes precedence over interleaving)
+	 * @param coder <code>LZBlockCodec.HUFFMAN_CODER</code>, <code>LZBlockCodec.ANS_CODER</code>, or
+	 * <code>LZBlockCodec.BEST_CODER</code> to choose for each stream of each block
+	 */
+	public void setEntropyCoder(int coder){
+		coded = true;
+		entropyCoder = coder;
+	}
+
+
+	/**
+	 * Returns the symbol model
+	 * @return <code>BYTE_SYMBOLS</code>, <code>UNIT_SYMBOLS</code> or <code>WORD_SYMBOLS</code>
+	 */
+	public int getSymbols(){
+		return symbols;
+	}
+
+
+	/**
+	 * Chooses what the Huffman codes stand for: bytes and LZ77 matches, 16-bit units (numeric
+	 * dumps, PCM samples, UTF-16 text), or bytes and frequent words. Wide symbols take
+	 * precedence over interleaving and entropy coders, and are not matched
+	 * @param symbols <code>BYTE_SYMBOLS</code>, <code>UNIT_SYMBOLS</code> or <code>WORD_SYMBOLS</code>
+	 */
+	public void setSymbols(int symbols){
+
+		if (symbols != BYTE_SYMBOLS && symbols != UNIT_SYMBOLS && symbols != WORD_SYMBOLS)
+			throw new IllegalArgumentException("Invalid symbol model");
+
+		this.symbols = symbols;
+	}
+
+}
@@ -0,0 +1,45 @@
+package huffman;
+import java.io.IOException;
+
+import huffman.ThirdPartyClasses.BitOutputStream;
+
+/**
+ * ENTROPY CODER
+ * Codes a sequence of symbols given their frequencies. Implementations store whatever table
+ * they need in front of the coded symbols, so a block can pick a different coder for each
+ * of its symbol streams
+ * @author Andres Beltran
+ * @version 1.0
+ */
+
+public interface EntropyCoder {
+
+	/**
+	 * Estimates the size of the table and coded symbols, used to choose a coder for each stream
+	 * @param frequencies The frequency of each symbol of the alphabet
+	 * @return The estimated number of bits
+	 */
+	long estimateBits(int[] frequencies);
+
+
+	/**
+	 * Writes the table followed by the coded symbols
+	 * @param writer The bit stream
+	 * @param symbols The symbols to be coded
+	 * @param count The number of symbols
+	 * @param frequencies The frequency of each symbol of the alphabet in <code>symbols</code>
+	 */
+	void encode(BitOutputStream writer, int[] symbols, int count, int[] frequencies);
+
+
+	/**
+	 * Reads the table and decodes the symbols written by <code>encode</code>
+	 * @param reader The bit stream
+	 * @param symbols Receives the decoded symbols
+	 * @param count The number of symbols
+	 * @param alphabetSize The number of symbols in the alphabet
+	 * @throws IOException If the stream is corrupted
+	 */
+	void decode(BitReader reader, int[] symbols, int count, int alphabetSize) throws IOException;
+
+}
@@ -0,0 +1,90 @@
+package huffman;
+import java.io.IOException;
+
+import huffman.ThirdPartyClasses.BitOutputStream;
+
+/**
+ * HUFFMAN CODER
+ * <code>EntropyCoder</code> backed by <code>HuffmanTable</code>
+ * @author Andres Beltran
+ * @version 1.0
+ */
+
+public class HuffmanCoder implements EntropyCoder {
+
+	private int maxLength;		//Stores the longest code allowed when encoding
+
+
+	/**
+	 * Initializes a coder with no limit on the code length
+	 */
+	public HuffmanCoder(){
+		this(31);
+	}
+
+
+	/**
+	 * Initializes a coder whose codes are at most <code>maxLength</code> bits
+	 * @param maxLength The longest code allowed (bits)
+	 */
+	public HuffmanCoder(int maxLength){
+		this.maxLength = maxLength;
+	}
+
+
+	/**
+	 * Computes the exact size of the header and the codes
+	 * @param frequencies The frequency of each symbol of the alphabet
+	 * @return The number of bits
+	 */
+	@Override
+	public long estimateBits(int[] frequencies){
+
+		HuffmanTable table = new HuffmanTable(frequencies, maxLength);
+		return table.getCodedBits(frequencies) + table.getHeaderBits();
+	}
+
+
+	/**
+	 * Writes the header of a Huffman table built from the frequencies, followed by the code of
+	 * each symbol (nothing is written if there are no symbols)
+	 * @param writer The bit stream
+	 * @param symbols The symbols to be coded
+	 * @param count The number of symbols
+	 * @param frequencies The frequency of each symbol of the alphabet in <code>symbols</code>
+	 */
+	@Override
+	public void encode(BitOutputStream writer, int[] symbols, int count, int[] frequencies){
+
+		if (count == 0)
+			return;
+
+		HuffmanTable table = new HuffmanTable(frequencies, maxLength);
+		table.writeHeader(writer);
+
+		for (int i = 0; i < count; i++)
+			table.writeSymbol(writer, symbols[i]);
+	}
+
+
+	/**
+	 * Reads the table header and decodes the symbols one code at a time
+	 * @param reader The bit stream
+	 * @param symbols Receives the decoded symbols
+	 * @param count The number of symbols
+	 * @param alphabetSize The number of symbols in the alphabet
+	 * @throws IOException If the stream is corrupted
+	 */
+	@Override
+	public void decode(BitReader reader, int[] symbols, int count, int alphabetSize) throws IOException{
+
+		if (count == 0)
+			return;
+
+		HuffmanTable table = HuffmanTable.readHeader(reader, alphabetSize);
+
+		for (int i = 0; i < count; i++)
+			symbols[i] = table.readSymbol(reader);
+	}
+
+}
@@ -1,7 +1,16 @@
 package huffman;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
@@ -15,10 +24,15 @@ import java.util.NoSuchElementException;
 public class HuffmanCompressor {
 	
 	private static int ASCII = 256;
-	private static int PROGRAM_NUMBER = 1998;
+	static final int PROGRAM_NUMBER = 1998;
 	private static String[] encodingArray = new String[ASCII + 1]; //array of codes
 	private static int[] frequencyArray = new int[ASCII + 1];      // array of frequencies
 	private static int nonZeroCharacters;
+	private static String OPTIONS = "[-1..-9] [--block-size=N[k|m]] [--threads=N] [--table-reuse=N|off] [--max-code-length=N] [--io=stream|mmap]";
+	private static String USAGE = "Format: compress " + OPTIONS + " [--interleaved] [--coder=huffman|ans|auto] [--symbols=bytes|16|words] [--append] inputFile outputFile"
+			+ " | decompress inputFile outputFile | verify inputFile"
+			+ " | archive " + OPTIONS + " archiveFile inputFile... | list archiveFile | extract archiveFile outputDirectory [entry...]"
+			+ " | serve [--port=N] [--threads=N] | send command arguments...";
 	
 	
 	/**
@@ -28,6 +42,23 @@ public class HuffmanCompressor {
 	 * @return A String stating the result of the encoding process
 	 */
 	public static String compress(String inputFileName, String outputFileName){
+		return compress(inputFileName, outputFileName, System.out);
+	}
+	
+	
+	/**
+	 * Huffman Encoder (its tables are static, so files are encoded one at a time)
+	 * @param inputFileName The name of the file to be compressed
+	 * @param outputFileName The name of the compressed file
+	 * @param out Receives the encoding table and the savings
+	 * @return A String stating the result of the encoding process
+	 */
+	public static synchronized String compress(String inputFileName, String outputFileName, PrintStream out){
+		
+		//Clears the tables of the previous file
+		Arrays.fill(frequencyArray, 0);
+		Arrays.fill(encodingArray, null);
+		nonZeroCharacters = 0;
 		
 		//Stores each character's frequency 
 		try {
@@ -42,14 +73,14 @@ public class HuffmanCompressor {
 		HuffmanNode root = HuffmanTreeGenerator.getRoot(generateList());
 
 		//Traverse the tree to store the code for each character
-		traverse(root, "");
+		traverse(root);
 		
 		//Prints out the frequency table with the code for each character
-		System.out.println("ENCODING TABLE");
+		out.println("ENCODING TABLE");
 		for (int i = 0; i < frequencyArray.length; i++){
 			
 			if (frequencyArray[i] > 0)
-				System.out.println(((char)(i)) + " : " + frequencyArray[i] + " : " + encodingArray[i]);
+				out.println(((char)(i)) + " : " + frequencyArray[i] + " : " + encodingArray[i]);
 			
 		}
 		
@@ -64,11 +95,11 @@ public class HuffmanCompressor {
 			double percentSavings = 100 * (1 - ((double) writer.getCompressedFileSize() / (double) writer.getOriginalFileSize()));
 
 			// Prints out compression information
-			System.out.println();
-			System.out.println("Savings:");
-			System.out.println("Size of original file: " + writer.getOriginalFileSize() + " bits");
-			System.out.println("Size of compressed file: " + writer.getCompressedFileSize() + " bits");
-			System.out.println("Space saving: " + (int) percentSavings + "%");
+			out.println();
+			out.println("Savings:");
+			out.println("Size of original file: " + writer.getOriginalFileSize() + " bits");
+			out.println("Size of compressed file: " + writer.getCompressedFileSize() + " bits");
+			out.println("Space saving: " + (int) percentSavings + "%");
 			
 				
 		} catch (IOException e) {
@@ -79,6 +110,112 @@ public class HuffmanCompressor {
 	}
 	
 	
+	/**
+	 * LZ77 + Huffman Encoder (block container)
+	 * @param inputFileName The name of the file to be compressed
+	 * @param outputFileName The name of the compressed file
+	 * @param level The compression level (1 fastest - 9 best ratio)
+	 * @param interleaved True to split each block into four streams that decode faster
+	 * @param coder The entropy coder of each stream (see <code>LZBlockCodec</code>), or null for Huffman tables only
+	 * @param append True to compress only the bytes added to the input since the compressed file was written
+	 * @return A String stating the result of the encoding process
+	 */
+	public static String compress(String inputFileName, String outputFileName, int level, boolean interleaved, String coder,
+			boolean append){
+		
+		CompressionConfig config = CompressionConfig.forLevel(level);
+		config.setInterleaved(interleaved);
+		
+		if (coder != null)
+			config.setEntropyCoder(getCoder(coder));
+		
+		return compress(inputFileName, outputFileName, config, append);
+	}
+	
+	
+	/**
+	 * LZ77 + Huffman Encoder (block container) with explicit parameters
+	 * @param inputFileName The name of the file to be compressed
+	 * @param outputFileName The name of the compressed file
+	 * @param config The level preset and the parameters that override it
+	 * @param append True to compress only the bytes added to the input since the compressed file was written
+	 * @return A String stating the result of the encoding process
+	 */
+	public static String compress(String inputFileName, String outputFileName, CompressionConfig config, boolean append){
+		return compress(inputFileName, outputFileName, config, append, System.out);
+	}
+	
+	
+	/**
+	 * LZ77 + Huffman Encoder (block container) with explicit parameters
+	 * @param inputFileName The name of the file to be compressed
+	 * @param outputFileName The name of the compressed file
+	 * @param config The level preset and the parameters that override it
+	 * @param append True to compress only the bytes added to the input since the compressed file was written
+	 * @param out Receives the savings
+	 * @return A String stating the result of the encoding process
+	 */
+	public static String compress(String inputFileName, String outputFileName, CompressionConfig config, boolean append,
+			PrintStream out){
+		
+		try {
+			
+			//Reads, encodes and writes in parallel stages
+			PipelinedCompressor compressor = new PipelinedCompressor(config);
+			
+			if (append)
+				compressor.append(inputFileName, outputFileName);
+			else
+				compressor.compress(inputFileName, outputFileName);
+			
+			printSavings(compressor.getOriginalFileSize(), compressor.getCompressedFileSize(), out);
+			
+		} catch (FileNotFoundException | NoSuchFileException e) {
+			return "File error";
+		} catch (IOException e) {
+			return "Encoding error: " + e.getMessage();
+		}
+		
+		return "File successfully encoded!";
+	}
+	
+	
+	/**
+	 * Returns the ID of an entropy coder
+	 * @param name huffman, ans or auto (the smallest for each stream)
+	 * @return The ID used by <code>LZBlockCodec</code>
+	 */
+	private static int getCoder(String name){
+		
+		if (name.equals("huffman"))
+			return LZBlockCodec.HUFFMAN_CODER;
+		if (name.equals("ans"))
+			return LZBlockCodec.ANS_CODER;
+		if (name.equals("auto"))
+			return LZBlockCodec.BEST_CODER;
+		
+		throw new IllegalArgumentException("Unknown entropy coder " + name);
+	}
+	
+	
+	/**
+	 * Prints out the size of both files and the space savings
+	 * @param originalSize The size of the original file (bits)
+	 * @param compressedSize The size of the compressed file (bits)
+	 * @param out Receives the savings
+	 */
+	private static void printSavings(long originalSize, long compressedSize, PrintStream out){
+		
+		// % Space savings = 100 * (1 - compressed / uncompressed)
+		double percentSavings = originalSize == 0 ? 0 : 100 * (1 - ((double) compressedSize / (double) originalSize));
+		
+		out.println("Savings:");
+		out.println("Size of original file: " + originalSize + " bits");
+		out.println("Size of compressed file: " + compressedSize + " bits");
+		out.println("Space saving: " + (int) percentSavings + "%");
+	}
+	
+	
 	/**
 	 * Huffman Decoder
 	 * @param inputFileName The name of the file to be decoded
@@ -89,20 +226,198 @@ public class HuffmanCompressor {
 		
 		try {
 			
+			//Files written with a compression level use the block container
+			BlockDecompressor blockDecoder = new BlockDecompressor(inputFileName);
+			if (blockDecoder.decode(outputFileName) == 0)
+				return "File successfully decoded!";
+			
 			HuffmanDecoder decoder = new HuffmanDecoder(inputFileName, PROGRAM_NUMBER);
 			if (decoder.decode(outputFileName) == -1)
 				return "The file was not compressed by this program. Impossible to decode";
 				
 
-		} catch (IOException e) {
+		} catch (FileNotFoundException e) {
 			return "File error";
+		} catch (EOFException e) {
+			return "Decoding error: Unexpected end of file";
+		} catch (IOException e) {
+			return "Decoding error: " + e.getMessage();
 		}
 		
 		return "File successfully decoded!";
 		
 	}
+	
+	
+	/**
+	 * Checks the integrity of a compressed file without writing the decoded data
+	 * @param inputFileName The name of the file to be checked
+	 * @return A String stating the result of the check
+	 */
+	public static String verify(String inputFileName){
+		
+		try {
+			
+			//Files written with a compression level carry a checksum for each block
+			BlockDecompressor blockDecoder = new BlockDecompressor(inputFileName);
+			if (blockDecoder.verify() == 0)
+				return "File is intact";
+			
+			HuffmanDecoder decoder = new HuffmanDecoder(inputFileName, PROGRAM_NUMBER);
+			if (decoder.verify() == -1)
+				return "The file was not compressed by this program. Impossible to verify";
+			
+		} catch (FileNotFoundException e) {
+			return "File error";
+		} catch (EOFException e) {
+			return "File is corrupted: Unexpected end of file";
+		} catch (IOException e) {
+			return "File is corrupted: " + e.getMessage();
+		}
+		
+		return "File structure is intact (this format has no checksums)";
+	}
 
 	
+	/**
+	 * Packs several files into an archive with a central directory
+	 * @param archiveFileName The name of the archive
+	 * @param inputFileNames The names of the files to be compressed (stored as relative paths)
+	 * @param level The compression level (1 fastest - 9 best ratio)
+	 * @return A String stating the result of the archiving process
+	 */
+	public static String archive(String archiveFileName, String[] inputFileNames, int level){
+		return archive(archiveFileName, inputFileNames, CompressionConfig.forLevel(level));
+	}
+	
+	
+	/**
+	 * Packs several files into an archive, compressing them with explicit parameters
+	 * @param archiveFileName The name of the archive
+	 * @param inputFileNames The names of the files to be compressed (stored as relative paths)
+	 * @param config The level preset and the parameters that override it
+	 * @return A String stating the result of the archiving process
+	 */
+	public static String archive(String archiveFileName, String[] inputFileNames, CompressionConfig config){
+		
+		try {
+			
+			ArchiveWriter writer = new ArchiveWriter(archiveFileName, config);
+			
+			try {
+				for (String inputFile : inputFileNames)
+					writer.add(getEntryName(inputFile), inputFile);
+			} finally {
+				writer.close();
+			}
+			
+		} catch (FileNotFoundException | NoSuchFileException e) {
+			return "File error";
+		} catch (IllegalArgumentException e) {
+			return e.getMessage();
+		} catch (IOException e) {
+			return "Encoding error: " + e.getMessage();
+		}
+		
+		return "Archive successfully created!";
+	}
+	
+	
+	/**
+	 * Returns the name an input file gets in an archive
+	 * @param inputFileName The name of the file
+	 * @return The normalized path without its root, with '/' separators
+	 */
+	private static String getEntryName(String inputFileName){
+		
+		Path path = Paths.get(inputFileName).normalize();
+		
+		if (path.getRoot() != null)
+			path = path.getRoot().relativize(path);
+		
+		return path.toString().replace(File.separatorChar, '/');
+	}
+	
+	
+	/**
+	 * Prints out the central directory of an archive
+	 * @param archiveFileName The name of the archive
+	 * @return A String stating the result of the listing
+	 */
+	public static String list(String archiveFileName){
+		return list(archiveFileName, System.out);
+	}
+	
+	
+	/**
+	 * Prints out the central directory of an archive
+	 * @param archiveFileName The name of the archive
+	 * @param out Receives one line per entry
+	 * @return A String stating the result of the listing
+	 */
+	public static String list(String archiveFileName, PrintStream out){
+		
+		try {
+			
+			ArchiveReader reader = new ArchiveReader(archiveFileName);
+			
+			for (ArchiveEntry entry : reader.getEntries())
+				out.println(entry.getName() + " : " + entry.getOriginalSize() + " bytes : " + entry.getCompressedSize() + " bytes compressed");
+			
+			reader.close();
+			return reader.getEntries().size() + " entries";
+			
+		} catch (FileNotFoundException | NoSuchFileException e) {
+			return "File error";
+		} catch (IOException e) {
+			return "Decoding error: " + e.getMessage();
+		}
+	}
+	
+	
+	/**
+	 * Extracts entries of an archive into a directory, several entries at the same time
+	 * @param archiveFileName The name of the archive
+	 * @param directory The name of the directory that receives the files
+	 * @param names The names of the entries to extract (all of them if empty)
+	 * @return A String stating the result of the extraction
+	 */
+	public static String extract(String archiveFileName, String directory, String[] names){
+		
+		try {
+			
+			ArchiveReader reader = new ArchiveReader(archiveFileName);
+			List<ArchiveEntry> selected = reader.getEntries();
+			
+			if (names.length > 0){
+				selected = new ArrayList<>();
+				for (String name : names){
+					if (reader.getEntry(name) == null){
+						reader.close();
+						return "The archive has no entry " + name;
+					}
+					selected.add(reader.getEntry(name));
+				}
+			}
+			
+			try {
+				reader.extract(selected, directory, Runtime.getRuntime().availableProcessors());
+			} finally {
+				reader.close();
+			}
+			
+		} catch (FileNotFoundException | NoSuchFileException e) {
+			return "File error";
+		} catch (EOFException e) {
+			return "Decoding error: Unexpected end of file";
+		} catch (IOException e) {
+			return "Decoding error: " + e.getMessage();
+		}
+		
+		return "Files successfully extracted!";
+	}
+	
+	
 	/**
 	 * Computes each character's frequency and stores it in <code>frequencyArray</code>
 	 * @param file The file to be scanned
@@ -155,50 +470,182 @@ public class HuffmanCompressor {
 
 	
 	/**
-	 * Traverses the tree to generate the codes for each character
+	 * Traverses the tree to generate the codes for each character. The path to the current node
+	 * is kept in a single buffer and the nodes still to be visited on an explicit stack, so only
+	 * the codes of leaf-nodes become Strings and deep trees cannot overflow the call stack
 	 * @param rootNode The root of the tree
-	 * @param code The code for each character
 	 */
-	private static void traverse(HuffmanNode rootNode, String code){
+	private static void traverse(HuffmanNode rootNode){
+		
+		//A tree with n leaves has at most n - 1 levels, and holds one pending node per level
+		HuffmanNode[] stack = new HuffmanNode[nonZeroCharacters + 1];
+		int[] depths = new int[stack.length];
+		char[] bits = new char[stack.length];		//Bit that leads to each pending node
+		StringBuilder code = new StringBuilder();
+		int top = 0;
 		
-		//Stopping condition
-		if (rootNode.getLeft() == null && rootNode.getRight() == null 
-				&& rootNode.getInChar() != null){
+		stack[top] = rootNode;
+		depths[top++] = 0;
+		
+		while (top > 0){
 			
-			//Stores the code of each character in the corresponding character index
-			encodingArray[(int)(rootNode.getInChar())] = code;
-			return;
+			HuffmanNode node = stack[--top];
+			int depth = depths[top];
+			
+			//Replaces the path below the parent of this node with the bit that leads to it
+			if (depth > 0){
+				code.setLength(depth - 1);
+				code.append(bits[top]);
+			}
+			
+			//Stopping condition
+			if (node.getLeft() == null && node.getRight() == null 
+					&& node.getInChar() != null){
+				
+				//Stores the code of each character in the corresponding character index
+				encodingArray[(int)(node.getInChar())] = code.toString();
+				continue;
+			}
+			
+			//Right is pushed first so the left subtree (appending 0s) is visited first
+			stack[top] = node.getRight();
+			bits[top] = '1';
+			depths[top++] = depth + 1;
+			stack[top] = node.getLeft();
+			bits[top] = '0';
+			depths[top++] = depth + 1;
 		}
+		  
+	}
+	
+	
+	/**
+	 * Builds the configuration given by the options: the preset of the level (6 by default),
+	 * overridden by the explicit options in any order
+	 * @param options The options
+	 * @return The configuration
+	 * @throws IllegalArgumentException If an option is unknown (the message is the usage) or invalid
+	 */
+	private static CompressionConfig parseConfig(List<String> options){
 		
-		//Traverses left appending 0s
-		traverse(rootNode.getLeft(), code + "0");
+		int level = 6;
+		for (String option : options){
+			if (option.matches("-[1-9]"))
+				level = Integer.parseInt(option.substring(1));
+		}
 		
-		//Traverses right appending 1s
-		traverse(rootNode.getRight(), code + "1");
-		  
+		CompressionConfig config = CompressionConfig.forLevel(level);
+		
+		for (String option : options){
+			if (!option.matches("-[1-9]") && !config.parseOption(option))
+				throw new IllegalArgumentException(USAGE);
+		}
+		
+		return config;
+	}
+	
+	
+	/**
+	 * Runs the Compressor with the options given before the input and output files
+	 * @param args The options followed by inputFile and outputFile
+	 * @param out Receives the encoding table or the savings
+	 * @return A String stating the result (the usage or the error if an option is not valid)
+	 */
+	private static String runCompress(String[] args, PrintStream out){
+		
+		ArrayList<String> options = new ArrayList<>(Arrays.asList(args).subList(0, args.length - 2));
+		boolean append = options.remove("--append");
+		
+		String inputFile = args[args.length - 2];
+		String outputFile = args[args.length - 1];
+		
+		//Without options the original single-stream format is written
+		if (options.isEmpty() && !append)
+			return compress(inputFile, outputFile, out);
+		
+		try {
+			return compress(inputFile, outputFile, parseConfig(options), append, out);
+		} catch (IllegalArgumentException e) {
+			return e.getMessage();
+		}
+	}
+	
+	
+	/**
+	 * Runs the archiver with the options given before the archive and input files
+	 * @param args The options (optional), followed by archiveFile and the input files
+	 * @return A String stating the result (the usage or the error if an option is not valid)
+	 */
+	private static String runArchive(String[] args){
+		
+		int first = 0;
+		while (first < args.length && args[first].startsWith("-"))
+			first++;
+		
+		if (args.length - first < 2)
+			return USAGE;
+		
+		try {
+			return archive(args[first], Arrays.copyOfRange(args, first + 1, args.length), parseConfig(Arrays.asList(args).subList(0, first)));
+		} catch (IllegalArgumentException e) {
+			return e.getMessage();
+		}
+	}
+	
+	
+	/**
+	 * Runs a command that works on files (every command except serve and send), the
+	 * same way from the command line and from <code>HuffmanDaemon</code>
+	 * @param args The command followed by its arguments (see <code>main</code>)
+	 * @param out Receives what the command prints before its result
+	 * @return The result of the command
+	 */
+	static String execute(String[] args, PrintStream out){
+		
+		if (args.length >= 3 && args[0].equals("compress"))
+			return runCompress(Arrays.copyOfRange(args, 1, args.length), out);
+		
+		if (args.length >= 3 && args[0].equals("archive"))
+			return runArchive(Arrays.copyOfRange(args, 1, args.length));
+		
+		if (args.length >= 3 && args[0].equals("extract"))
+			return extract(args[1], args[2], Arrays.copyOfRange(args, 3, args.length));
+		
+		if (args.length == 2 && args[0].equals("list"))
+			return list(args[1], out);
+		
+		if (args.length == 2 && args[0].equals("verify"))
+			return verify(args[1]);
+		
+		if (args.length == 3 && args[0].equals("decompress"))
+			return decompress(args[1], args[2]);
+		
+		return USAGE;
 	}
 	
 	
 	/**
 	 * Runs the Huffman Encoder
-	 * @param args index 0: compress/decompress; index 1: inputFile; index 2: outputFile
+	 * @param args index 0: compress/decompress/verify; followed by the options (compress only),
+	 * inputFile and outputFile (not needed by verify). index 0: archive/list/extract; followed by
+	 * the archive and its files. index 0: serve; followed by its options, or send; followed by another command (see <code>HuffmanDaemon</code>)
 	 */
 	public static void main (String[] args){
 
 		//System.out.println(compress(args[0], args[1]));
 		//System.out.println(decompress(args[1], "Again.txt"));
 		
-		if (args.length != 3){
-			System.out.println("Format: [compress/decompress] inputFile outputFile");
+		if (args.length >= 1 && args[0].equals("serve")){
+			System.exit(HuffmanDaemon.run(Arrays.copyOfRange(args, 1, args.length)));
+			return;
+		}
+		
+		if (args.length >= 2 && args[0].equals("send")){
+			System.out.println(HuffmanDaemon.send(Arrays.copyOfRange(args, 1, args.length)));
 			return;
 		}
 		
-		if (args[0].equals("compress"))
-			System.out.println(compress(args[1], args[2]));
-		else if (args[0].equals("decompress"))
-			System.out.println(decompress(args[1], args[2]));
-		else
-			System.out.println("Format: [compress/decompress] inputFile outputFile");
+		System.out.println(execute(args, System.out));
 		
 	}
 	
@@ -0,0 +1,490 @@
+package huffman;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * HUFFMAN DAEMON
+ * Keeps the program resident, so jobs sent by scripts skip the start-up of a new JVM, class
+ * loading and compilation of the coding loops (which are compiled during a warm-up before the
+ * first job), and reuse the block buffers of earlier jobs (<code>BufferPool</code>).
+ * <P>
+ * A request is a single line: the token, the client's working directory and the arguments
+ * of a command line (compress, decompress, verify, archive, list, extract or stop), separated
+ * by tabs. Relative file names are resolved against the client's directory. The reply is the
+ * text the command would have printed (each job prints into its own buffer), and the
+ * connection is then closed. The token is read and checked before anything else, and every
+ * connection has READ_TIMEOUT to send its request, so idle clients cannot hold the job threads.
+ * <P>
+ * Java 9 has no Unix-domain sockets (they were added in Java 16), so the daemon listens on the
+ * loopback address only, and every request must start with a random token that is written,
+ * with the port, to a state file only its owner can read. This gives the same protection as
+ * the file permissions of a Unix-domain socket
+ * @author Andres Beltran
+ * @version 1.0
+ */
+
+public class HuffmanDaemon {
+
+	private static int MAX_REQUEST = 1 << 16;		//Longest request (bytes)
+	private static int READ_TIMEOUT = 5000;			//Time a client has to send its request (ms)
+	private static int BACKLOG = 64;				//Connections waiting to be accepted
+	private static int WARM_UP_SIZE = 4 << 20;		//Size of the file compressed during the warm-up
+	private static int WARM_UP_ROUNDS = 3;			//Times each warm-up job is run
+	private static String[] WARM_UP_WORDS = {"GET", "POST", "/index.html", "/api/v1/items", "200", "404",
+			"user", "session", "timeout", "connected", "the", "of", "and", "request", "2019-03-14"};
+
+	private ServerSocket server;			//Accepts the connections of the clients
+	private ExecutorService jobs;			//Runs the jobs
+	private Path stateFile;					//Stores the port and the token
+	private String token;					//Stores the secret every request must start with
+	private volatile boolean stopping;		//Stores whether a stop request was received
+
+
+	/**
+	 * Opens the socket of the daemon (jobs are accepted once <code>serve</code> is called)
+	 * @param port The port on the loopback address (0 for any free port)
+	 * @param threads The number of jobs run at the same time
+	 * @param stateFile The file where the port and the token are written
+	 * @throws IOException If the socket cannot be opened
+	 */
+	public HuffmanDaemon(int port, int threads, Path stateFile) throws IOException{
+
+		server = new ServerSocket(port, BACKLOG, InetAddress.getLoopbackAddress());
+		jobs = Executors.newFixedThreadPool(threads);
+		this.stateFile = stateFile;
+
+		byte[] secret = new byte[16];
+		new SecureRandom().nextBytes(secret);
+		StringBuilder hex = new StringBuilder();
+		for (byte b : secret)
+			hex.append(String.format("%02x", b & 0xff));
+		token = hex.toString();
+	}
+
+
+	/**
+	 * Returns the default state file (in the user's home directory)
+	 * @return The path of the state file
+	 */
+	public static Path getStateFile(){
+		return Paths.get(System.getProperty("user.home"), ".huffman-daemon");
+	}
+
+
+	/**
+	 * Returns the port the daemon listens on
+	 * @return The port
+	 */
+	public int getPort(){
+		return server.getLocalPort();
+	}
+
+
+	/**
+	 * Compresses and decompresses a generated log with the fastest and the default level, so
+	 * the coding loops are compiled before the first job
+	 * @throws IOException If the temporary files cannot be written
+	 */
+	public void warmUp() throws IOException{
+
+		Path directory = Files.createTempDirectory("huffman-warm-up");
+		Path input = directory.resolve("input");
+		Path compressed = directory.resolve("compressed");
+		Path decoded = directory.resolve("decoded");
+
+		//The statistics printed by each compression are discarded
+		PrintStream discarded = new PrintStream(new OutputStream(){
+			public void write(int b){
+			}
+		});
+
+		try {
+
+			Random random = new Random(WARM_UP_SIZE);
+			StringBuilder text = new StringBuilder(WARM_UP_SIZE + 64);
+			while (text.length() < WARM_UP_SIZE){
+				text.append(WARM_UP_WORDS[random.nextInt(WARM_UP_WORDS.length)]);
+				text.append(random.nextInt(16) == 0 ? '\n' : ' ');
+			}
+			Files.write(input, text.toString().getBytes(StandardCharsets.US_ASCII));
+
+			for (int round = 0; round < WARM_UP_ROUNDS; round++){
+				for (String level : new String[] {"-1", "-6"}){
+					HuffmanCompressor.execute(new String[] {"compress", level, input.toString(), compressed.toString()}, discarded);
+					HuffmanCompressor.execute(new String[] {"decompress", compressed.toString(), decoded.toString()}, discarded);
+				}
+			}
+
+		} finally {
+			Files.deleteIfExists(input);
+			Files.deleteIfExists(compressed);
+			Files.deleteIfExists(decoded);
+			Files.deleteIfExists(directory);
+		}
+	}
+
+
+	/**
+	 * Publishes the state file and runs jobs until a stop request is received (running jobs
+	 * are finished before returning)
+	 * @throws IOException If the state file cannot be written or the socket fails
+	 */
+	public void serve() throws IOException{
+
+		writeState();
+
+		try {
+
+			while (!stopping){
+
+				final Socket socket;
+
+				try {
+					socket = server.accept();
+				} catch (SocketException e) {
+					if (stopping)
+						break;
+					throw e;
+				}
+
+				jobs.submit(new Runnable(){
+					public void run(){
+						handle(socket);
+					}
+				});
+			}
+
+		} finally {
+			jobs.shutdown();
+			server.close();
+
+			//Another daemon may have replaced the state file since
+			if (Files.exists(stateFile) && new String(Files.readAllBytes(stateFile), StandardCharsets.US_ASCII).contains(token))
+				Files.delete(stateFile);
+		}
+	}
+
+
+	/**
+	 * Writes the port and the token to the state file, which only the owner can read
+	 * @throws IOException If the file cannot be written
+	 */
+	private void writeState() throws IOException{
+
+		Path temporary = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+		Files.deleteIfExists(temporary);
+
+		try {
+			Files.createFile(temporary, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+		} catch (UnsupportedOperationException e) {
+			//File systems without POSIX permissions (the home directory is private on those systems)
+			Files.createFile(temporary);
+		}
+
+		Files.write(temporary, (getPort() + " " + token + "\n").getBytes(StandardCharsets.US_ASCII));
+		Files.move(temporary, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+
+	/**
+	 * Reads a request, runs it and sends the reply
+	 * @param socket The connection of the client
+	 */
+	private void handle(Socket socket){
+
+		try (Socket connection = socket){
+
+			connection.setSoTimeout(READ_TIMEOUT);
+			long deadline = System.nanoTime() + READ_TIMEOUT * 1000000L;
+			InputStream input = new BufferedInputStream(connection.getInputStream());
+			byte[] sent = readToken(input, deadline);
+			String[] fields;
+			String reply;
+
+			if (sent == null)
+				reply = "Invalid request";
+			else if (!MessageDigest.isEqual(token.getBytes(StandardCharsets.US_ASCII), sent))
+				reply = "Invalid token";
+			else if ((fields = readRequest(input, deadline)) == null || fields.length < 2 || !isAbsolutePath(fields[0]))
+				reply = "Invalid request";
+			else
+				reply = runJob(Paths.get(fields[0]), Arrays.copyOfRange(fields, 1, fields.length));
+
+			OutputStream output = connection.getOutputStream();
+			output.write((reply + "\n").getBytes(StandardCharsets.UTF_8));
+			output.flush();
+
+		} catch (IOException e) {
+			//The client is gone or too slow, so there is nobody to reply to
+		}
+	}
+
+
+	/**
+	 * Checks the working directory of a request
+	 * @param directory The directory sent by the client
+	 * @return True if it is a valid absolute path
+	 */
+	private static boolean isAbsolutePath(String directory){
+
+		try {
+			return Paths.get(directory).isAbsolute();
+		} catch (InvalidPathException e) {
+			return false;
+		}
+	}
+
+
+	/**
+	 * Reads the token at the start of a request, and the tab after it
+	 * @param input The stream of the connection
+	 * @param deadline The time the request must be read by (<code>System.nanoTime</code>)
+	 * @return The token sent by the client, or null if it has the wrong length
+	 * @throws IOException If there is an error reading the connection, or the deadline passes
+	 */
+	private byte[] readToken(InputStream input, long deadline) throws IOException{
+
+		byte[] sent = new byte[token.length()];
+
+		for (int i = 0; i < sent.length; i++){
+
+			int b = read(input, deadline);
+
+			if (b == -1 || b == '\t')
+				return null;
+
+			sent[i] = (byte) b;
+		}
+
+		return read(input, deadline) == '\t' ? sent : null;
+	}
+
+
+	/**
+	 * Reads the rest of the request line, after the token
+	 * @param input The stream of the connection
+	 * @param deadline The time the request must be read by (<code>System.nanoTime</code>)
+	 * @return The fields of the request, or null if it is too long or incomplete
+	 * @throws IOException If there is an error reading the connection, or the deadline passes
+	 */
+	private static String[] readRequest(InputStream input, long deadline) throws IOException{
+
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int b;
+
+		while ((b = read(input, deadline)) != '\n'){
+
+			if (b == -1 || line.size() == MAX_REQUEST)
+				return null;
+
+			line.write(b);
+		}
+
+		String request = new String(line.toByteArray(), StandardCharsets.UTF_8);
+		if (request.endsWith("\r"))
+			request = request.substring(0, request.length() - 1);
+
+		return request.split("\t", -1);
+	}
+
+
+	/**
+	 * Reads a byte of a request (each read also waits at most READ_TIMEOUT)
+	 * @param input The stream of the connection
+	 * @param deadline The time the request must be read by (<code>System.nanoTime</code>)
+	 * @return The byte, or -1 at the end of the stream
+	 * @throws IOException If there is an error reading the connection, or the deadline passes
+	 */
+	private static int read(InputStream input, long deadline) throws IOException{
+
+		if (System.nanoTime() - deadline > 0)
+			throw new SocketTimeoutException("Request too slow");
+
+		return input.read();
+	}
+
+
+	/**
+	 * Runs a job the same way the command line would
+	 * @param directory The client's working directory
+	 * @param args The command followed by its arguments
+	 * @return The text the command prints, followed by its result
+	 */
+	private String runJob(Path directory, String[] args){
+
+		if (args[0].equals("stop")){
+			stop();
+			return "Daemon stopped";
+		}
+
+		if (args[0].equals("serve") || args[0].equals("send"))
+			return "The daemon cannot run " + args[0];
+
+		//Options start with '-', and the entries given to extract are names inside the archive
+		String[] resolved = args.clone();
+		for (int i = 1; i < resolved.length; i++){
+			if (!resolved[i].startsWith("-") && !(args[0].equals("extract") && i > 2))
+				resolved[i] = directory.resolve(resolved[i]).toString();
+		}
+
+		//Jobs run at the same time, so each one prints into its own buffer
+		ByteArrayOutputStream printed = new ByteArrayOutputStream();
+		PrintStream out;
+
+		try {
+			out = new PrintStream(printed, true, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+
+		String result;
+
+		try {
+			result = HuffmanCompressor.execute(resolved, out);
+		} catch (RuntimeException e) {
+			result = "Error: " + e;
+		}
+
+		out.flush();
+		return new String(printed.toByteArray(), StandardCharsets.UTF_8) + result;
+	}
+
+
+	/**
+	 * Stops accepting jobs (the ones already accepted are finished)
+	 */
+	public void stop(){
+
+		stopping = true;
+
+		try {
+			server.close();
+		} catch (IOException e) {
+			//The socket is being closed anyway
+		}
+	}
+
+
+	/**
+	 * Sends a job to the daemon and waits for its reply
+	 * @param stateFile The state file of the daemon
+	 * @param directory The directory relative file names are resolved against
+	 * @param args The command followed by its arguments
+	 * @return The reply of the daemon
+	 * @throws IOException If the daemon is not running or the connection fails
+	 */
+	public static String request(Path stateFile, Path directory, String[] args) throws IOException{
+
+		String[] state = new String(Files.readAllBytes(stateFile), StandardCharsets.US_ASCII).trim().split(" ");
+		StringBuilder line = new StringBuilder(state[1]).append('\t').append(directory.toAbsolutePath());
+
+		for (String arg : args){
+			if (arg.indexOf('\t') >= 0 || arg.indexOf('\n') >= 0)
+				throw new IOException("Arguments cannot contain tabs or line breaks");
+			line.append('\t').append(arg);
+		}
+
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(state[0]))){
+
+			socket.getOutputStream().write((line + "\n").getBytes(StandardCharsets.UTF_8));
+			socket.shutdownOutput();
+
+			ByteArrayOutputStream reply = new ByteArrayOutputStream();
+			InputStream input = socket.getInputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = input.read(buffer)) != -1)
+				reply.write(buffer, 0, read);
+
+			String text = new String(reply.toByteArray(), StandardCharsets.UTF_8);
+			return text.endsWith("\n") ? text.substring(0, text.length() - 1) : text;
+		}
+	}
+
+
+	/**
+	 * Sends a job to the daemon of this user, from the current directory
+	 * @param args The command followed by its arguments
+	 * @return The reply of the daemon, or the error
+	 */
+	public static String send(String[] args){
+
+		try {
+			return request(getStateFile(), Paths.get(""), args);
+		} catch (NoSuchFileException e) {
+			return "The daemon is not running (start it with: serve)";
+		} catch (IOException e) {
+			return "Daemon error: " + e.getMessage();
+		}
+	}
+
+
+	/**
+	 * Starts the daemon from the command line
+	 * @param args --port=N (0 for any free port) and --threads=N (jobs run at the same time)
+	 * @return The exit status
+	 */
+	public static int run(String[] args){
+
+		int port = 0;
+		int threads = Runtime.getRuntime().availableProcessors();
+
+		try {
+			for (String arg : args){
+				if (arg.startsWith("--port="))
+					port = Integer.parseInt(arg.substring(7));
+				else if (arg.startsWith("--threads="))
+					threads = Integer.parseInt(arg.substring(10));
+				else
+					throw new IllegalArgumentException("Unknown option " + arg);
+			}
+
+			if (threads < 1)
+				throw new IllegalArgumentException("At least one thread is needed");
+
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			return 1;
+		}
+
+		try {
+
+			HuffmanDaemon daemon = new HuffmanDaemon(port, threads, getStateFile());
+			daemon.warmUp();
+			System.out.println("Listening on " + InetAddress.getLoopbackAddress().getHostAddress() + ":" + daemon.getPort()
+					+ " (port and token in " + getStateFile() + ")");
+			daemon.serve();
+
+		} catch (IOException e) {
+			System.out.println("Daemon error: " + e.getMessage());
+			return 1;
+		}
+
+		return 0;
+	}
+
+}
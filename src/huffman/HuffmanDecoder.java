@@ -1,10 +1,14 @@
 package huffman;
 import java.io.*;
-
-import huffman.ThirdPartyClasses.BitInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
 
 /**
  * DECOMPRESSOR
+ * Files larger than two chunks are decoded by <code>ParallelHuffmanDecoder</code> when more
+ * than one thread is available, with the same output as decoding them serially
  * @author Andres Beltran
  * @version 1.0
  * 
@@ -13,7 +17,13 @@ import huffman.ThirdPartyClasses.BitInputStream;
 public class HuffmanDecoder {
 	
 	private static int PROGRAM_NUMBER;		//Program's ID
-	private BitInputStream reader;    		//Bit reader
+	private static int OUTPUT_BLOCK = 1 << 16;	//Number of decoded bytes written at a time
+	private static int PARALLEL_CHUNK = 1 << 20;	//Bytes of codes decoded by each thread at a time
+	private static byte[][] CHARACTER_BYTES = encodeCharacters();	//Bytes written for each character, computed once per process
+	private String inputFile;				//Name of the compressed file
+	private int threads = Runtime.getRuntime().availableProcessors();	//Number of threads that decode the codes
+	private int chunkSize = PARALLEL_CHUNK;	//Bytes of codes decoded by each thread at a time
+	private BitReader reader;    			//Bit reader
 	private int nonZeroCharacters;			//Number of distinct characters in the file
 	private int treeCounter;				//Counts the number of distinct characters when reading the tree
 	private HuffmanNode root;				//Huffman tree's root
@@ -28,76 +38,175 @@ public class HuffmanDecoder {
 	public HuffmanDecoder(String inputFile, int magicNumber) throws IOException {
 	
 		PROGRAM_NUMBER = magicNumber;
-		reader = new BitInputStream(new FileInputStream(inputFile));
+		this.inputFile = inputFile;
+		reader = new BitReader(new FileInputStream(inputFile));
 		root = new HuffmanNode(null);
 		
 	}
 	
 	
 	/**
-	 * Generates the Huffman tree stored in this file (using Preorder traversal)
-	 * @param node The tree's nodes
-	 * @throws IOException If there is an error reading the file
+	 * Sets how the codes are decoded in parallel
+	 * @param threads The number of threads (1 to decode serially)
+	 * @param chunkSize The number of bytes of codes decoded by each thread at a time
 	 */
-	private void recreateTree(HuffmanNode node) throws IOException{
+	public void setParallelism(int threads, int chunkSize){
 		
-		//Check if all the characters have been accounted for
-		if (treeCounter == nonZeroCharacters)
-			return;
+		if (threads < 1 || chunkSize < 1)
+			throw new IllegalArgumentException("Invalid parallelism");
 		
-		int bit = reader.read(1);
+		this.threads = threads;
+		this.chunkSize = chunkSize;
+	}
+	
+	
+	/**
+	 * Generates the Huffman tree stored in this file (using Preorder traversal). The right child
+	 * of every non-leaf node waits on an explicit stack while its left subtree is read. A tree
+	 * with n leaves has at most n - 1 levels, so deeper paths can only come from a corrupted file
+	 * @throws IOException If there is an error reading the file
+	 */
+	private void recreateTree() throws IOException{
+		
+		HuffmanNode[] pending = new HuffmanNode[Math.max(nonZeroCharacters, 1)];
+		int[] depths = new int[pending.length];
+		int top = 0;
+		HuffmanNode node = root;
+		int depth = 0;
 		
-		//1 represents a leaf-node (where characters are stored)
-		if (bit == 0){
-			node.setLeft(new HuffmanNode(null));
-			node.setRight(new HuffmanNode(null));
+		//Stops when all the characters have been accounted for
+		while (treeCounter < nonZeroCharacters){
 			
-			recreateTree(node.getLeft());
-			recreateTree(node.getRight());
+			int bit = reader.read(1);
 			
-		}else{
-			node.setInChar((char)reader.read(9));
-			treeCounter++;
-			return;
+			if (reader.isOverrun())
+				throw new IOException("Unexpected end of file");
+			
+			//1 represents a leaf-node (where characters are stored)
+			if (bit == 0){
+				
+				if (depth + 1 >= nonZeroCharacters)
+					throw new IOException("Corrupted tree");
+				
+				node.setLeft(new HuffmanNode(null));
+				node.setRight(new HuffmanNode(null));
+				
+				pending[top] = node.getRight();
+				depths[top++] = depth + 1;
+				node = node.getLeft();
+				depth++;
+				
+			}else{
+				int character = reader.read(9);
+				
+				if (reader.isOverrun() || character > 256)
+					throw new IOException("Corrupted tree");
+				
+				node.setInChar((char)character);
+				treeCounter++;
+				
+				if (top == 0)
+					return;
+				
+				node = pending[--top];
+				depth = depths[top];
+			}
 		}
 	}
 	
 	
 	/**
-	 * Traverses the Huffman Tree stored in the file to decode each character
-	 * @param outputFile The name of the decoded file
-	 * @throws IOException If there is an error with <code>outputFile</code>
+	 * Decodes each character with a lookup table built from the Huffman Tree, and writes them
+	 * in blocks. Nothing is allocated once the loop has started
+	 * @param output The decoded file (null to decode without writing)
+	 * @throws IOException If there is an error with <code>output</code> or the file is corrupted
 	 */
-	private void readFile(String outputFile) throws IOException{
+	private void readFile(FileChannel output) throws IOException{
 		
-		int readBit;
-		HuffmanNode pointer = root; //A pointer that helps traversing the tree
-		FileWriter writer = new FileWriter(outputFile);
+		HuffmanTable table = new HuffmanTable(root, 257);
+		table.buildLookup();
 		
-		while(true){
+		byte[][] characterBytes = CHARACTER_BYTES;
+		byte[] block = new byte[OUTPUT_BLOCK];
+		ByteBuffer buffer = ByteBuffer.wrap(block);
+		int count = 0;
+		long start = reader.getPosition();
+		
+		try {
+			
+			if (threads > 1 && new File(inputFile).length() - start / 8 >= 2L * chunkSize){
+				try (FileChannel input = FileChannel.open(Paths.get(inputFile))){
+					new ParallelHuffmanDecoder(table, characterBytes, threads, chunkSize).decode(input, start, output);
+				}
+				return;
+			}
 			
-			//Check if a leaf-node (a character) has been reached
-			if (pointer.getInChar() != null){
+			while(true){
+				
+				int character = table.readSymbol(reader);
 				
 				//Check if the Pseudo-EOF-character has been reached 
-				if ((int)pointer.getInChar() == 256)
+				if (character == 256)
 					break;
 				
-				writer.write(pointer.getInChar()); //Write the corresponding character
-				pointer = root;					   //Go back to the root
+				byte[] bytes = characterBytes[character];
+				
+				if (count + bytes.length > block.length){
+					writeBlock(output, buffer, count);
+					count = 0;
+				}
+				
+				if (bytes.length == 1){
+					block[count++] = bytes[0];
+				}else{
+					System.arraycopy(bytes, 0, block, count, bytes.length);
+					count += bytes.length;
+				}
 			}
 			
-			readBit = reader.read(1);
-			
-			//0 goes left, 1 right
-			if (readBit == 0)
-				pointer = pointer.getLeft();
-			else
-				pointer = pointer.getRight();
+			writeBlock(output, buffer, count);
 			
+		} finally {
+			if (output != null)
+				output.close();
 		}
+	}
+	
+	
+	/**
+	 * Writes a block of decoded characters, after checking that they all came from the file
+	 * @param output The decoded file (null to skip writing)
+	 * @param buffer The buffer wrapping the block
+	 * @param count The number of bytes in the block
+	 * @throws IOException If there is an error writing or the file ended too soon
+	 */
+	private void writeBlock(FileChannel output, ByteBuffer buffer, int count) throws IOException{
+		
+		if (reader.isOverrun())
+			throw new IOException("Unexpected end of file");
+		
+		if (output == null)
+			return;
 		
-		writer.close();
+		buffer.clear().limit(count);
+		while (buffer.hasRemaining())
+			output.write(buffer);
+	}
+	
+	
+	/**
+	 * Encodes each character the same way <code>FileWriter</code> does (default charset)
+	 * @return The bytes of each character
+	 */
+	private static byte[][] encodeCharacters(){
+		
+		byte[][] characterBytes = new byte[256][];
+		Charset charset = Charset.defaultCharset();
+		
+		for (int i = 0; i < characterBytes.length; i++)
+			characterBytes[i] = String.valueOf((char) i).getBytes(charset);
+		
+		return characterBytes;
 	}
 	
 	
@@ -113,8 +222,28 @@ public class HuffmanDecoder {
 			return -1;
 		
 		nonZeroCharacters = reader.read(9);
-		recreateTree(root);
-		readFile(outputFile);
+		recreateTree();
+		readFile(new FileOutputStream(outputFile).getChannel());
+		reader.close();
+		return 0;
+		
+	}
+	
+	
+	/**
+	 * Decodes the whole file without writing the output. This format has no checksums, so only
+	 * its structure (tree and Pseudo-EOF-character) can be checked
+	 * @return 0 if the file could be decoded, or -1 if the program's ID does not match
+	 * @throws IOException If the file is corrupted
+	 */
+	public int verify() throws IOException{
+		
+		if (reader.read(32) != PROGRAM_NUMBER) 
+			return -1;
+		
+		nonZeroCharacters = reader.read(9);
+		recreateTree();
+		readFile(null);
 		reader.close();
 		return 0;
 		
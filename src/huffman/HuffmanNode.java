@@ -1,13 +1,18 @@
 package huffman;
 /**
  * HUFFMAN NODE
+ * Leaf-nodes store an int symbol, so trees can code alphabets larger than a <code>char</code>
+ * (16-bit units plus an end marker, dictionaries of words). The original format still sees
+ * its symbols as characters through <code>getInChar</code> and <code>setInChar</code>
  * @author Andres Beltran
  * @version 1.0
  */
 
 public class HuffmanNode implements Comparable<HuffmanNode>{
 	
-	private Character inChar; 			//Stores the character
+	public static final int NO_SYMBOL = -1;	//Symbol of non-leaf nodes
+
+	private int symbol; 				//Stores the symbol (NO_SYMBOL if the node is not a leaf)
 	private int frequency;    			//Stores the frequency 
 	private HuffmanNode left = null;	//Stores its left child
 	private HuffmanNode right = null;	//Stores its right child
@@ -18,7 +23,18 @@ public class HuffmanNode implements Comparable<HuffmanNode>{
 	 * @param frequency The character's frequency
 	 */
 	public HuffmanNode(Character inChar, int frequency){
-		this.inChar = inChar;
+		this.symbol = inChar == null ? NO_SYMBOL : inChar;
+		this.frequency = frequency;
+	}
+	
+	
+	/**
+	 * Initializes a new Huffman Node for a symbol of any alphabet
+	 * @param symbol The symbol the node stores (0 or greater)
+	 * @param frequency The symbol's frequency
+	 */
+	public HuffmanNode(int symbol, int frequency){
+		this.symbol = symbol;
 		this.frequency = frequency;
 	}
 	
@@ -27,7 +43,7 @@ public class HuffmanNode implements Comparable<HuffmanNode>{
 	 * @param inChar The character the node stores
 	 */
 	public HuffmanNode(Character inChar){
-		this.inChar = inChar;
+		this.symbol = inChar == null ? NO_SYMBOL : inChar;
 	}
 	
 
@@ -36,7 +52,7 @@ public class HuffmanNode implements Comparable<HuffmanNode>{
 	 * @return This node's character
 	 */
 	public Character getInChar() {
-		return inChar;
+		return symbol == NO_SYMBOL ? null : (char) symbol;
 	}
 	
 	
@@ -45,7 +61,34 @@ public class HuffmanNode implements Comparable<HuffmanNode>{
 	 * @param inChar This node's character
 	 */
 	public void setInChar(Character inChar) {
-		this.inChar = inChar;
+		this.symbol = inChar == null ? NO_SYMBOL : inChar;
+	}
+	
+	
+	/**
+	 * Returns this node's symbol
+	 * @return This node's symbol, NO_SYMBOL if it is not a leaf-node
+	 */
+	public int getSymbol() {
+		return symbol;
+	}
+	
+	
+	/**
+	 * Changes this node's symbol
+	 * @param symbol This node's symbol
+	 */
+	public void setSymbol(int symbol) {
+		this.symbol = symbol;
+	}
+	
+	
+	/**
+	 * Checks if this node stores a symbol
+	 * @return True for leaf-nodes
+	 */
+	public boolean hasSymbol() {
+		return symbol != NO_SYMBOL;
 	}
 	
 	
@@ -0,0 +1,584 @@
+package huffman;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import huffman.ThirdPartyClasses.BitOutputStream;
+
+/**
+ * HUFFMAN TABLE
+ * Maps the symbols of an arbitrary alphabet to their Huffman codes. Codes are stored
+ * as integers (most significant bit first) so they can be written in a single call.
+ * <P>
+ * Every walk over the tree (code assignment, header serialization and parsing, lookup table)
+ * uses an explicit stack, so deep trees cannot overflow the call stack. Symbols are written
+ * in the header with 9 bits, or as many as the alphabet needs when it has more than 511 symbols.
+ * <P>
+ * Decoding uses two levels of tables: the first LOOKUP_BITS bits select either a symbol or a
+ * second-level table that is indexed with the rest of the code, so codes up to
+ * LOOKUP_BITS + MAX_SECOND_BITS bits (every code of wide alphabets limited to 22 bits or less)
+ * are decoded with two lookups. Only longer codes fall back to traversing the tree
+ * @author Andres Beltran
+ * @version 1.0
+ */
+
+public class HuffmanTable {
+
+	private static int MIN_SYMBOL_BITS = 9;	//Fewest bits used to write each symbol in the header
+	private static int LOOKUP_BITS = 10;	//Codes up to this length are decoded with a single lookup
+	private static int LONG_CODE = -1;		//Lookup entry of a prefix shared by longer codes
+	private static int INVALID = -2;		//Lookup entry of a prefix that leads to no symbol
+	private static int SECOND_LEVEL = -3;	//Lookup entry of the first second-level table (the next is -4...)
+	private static int MAX_SECOND_BITS = 12;	//Largest second-level table (bits after the first LOOKUP_BITS)
+	private static int MAX_LENGTH = 31;		//Longest code accepted by readHeader
+	private int[] codes;					//Stores the code of each symbol
+	private int[] lengths;					//Stores the length of each code (0 if the symbol is not used)
+	private HuffmanNode root;				//Stores the root of the Huffman tree (null if the table is empty)
+	private int nonZeroSymbols;				//Stores the number of symbols with a code
+	private int symbolBits;					//Stores the number of bits used to write each symbol in the header
+	private int[] lookup;					//Maps the next LOOKUP_BITS bits to (symbol << 8 | code length)
+	private HuffmanNode[] longCodes;		//Maps the first LOOKUP_BITS bits of the longest codes to their subtree
+	private int[][] secondTables;			//Maps the bits after the first LOOKUP_BITS to (symbol << 8 | remaining length)
+	private int[] secondBits;				//Stores the number of bits indexing each second-level table
+	private int secondCount;				//Stores the number of second-level tables
+
+
+	/**
+	 * Builds the table for the given frequencies
+	 * @param frequencies The frequency of each symbol of the alphabet
+	 */
+	public HuffmanTable(int[] frequencies){
+		this(frequencies, MAX_LENGTH);
+	}
+
+
+	/**
+	 * Builds the table for the given frequencies with no code longer than <code>maxLength</code>.
+	 * While the tree is too deep, the frequencies are halved (keeping every used symbol above 0)
+	 * and the tree is rebuilt, which brings rare symbols closer to the root
+	 * @param frequencies The frequency of each symbol of the alphabet
+	 * @param maxLength The longest code allowed (bits), enough for 2^maxLength symbols
+	 */
+	public HuffmanTable(int[] frequencies, int maxLength){
+
+		this((HuffmanNode) null, frequencies.length);
+
+		int count = 0;
+		for (int frequency : frequencies){
+			if (frequency > 0)
+				count++;
+		}
+
+		//Only the symbols whose frequency is > 0 get a node
+		int[] symbols = new int[count];
+		int[] used = new int[count];
+		count = 0;
+		for (int i = 0; i < frequencies.length; i++){
+			if (frequencies[i] > 0){
+				symbols[count] = i;
+				used[count++] = frequencies[i];
+			}
+		}
+
+		build(symbols, used, count, maxLength);
+	}
+
+
+	/**
+	 * Builds the table for the symbols of a sparse histogram (large alphabets of which only a
+	 * few symbols are used, counted with <code>LongIntHashMap</code>), with no code longer
+	 * than <code>maxLength</code>
+	 * @param alphabetSize The number of symbols in the alphabet
+	 * @param symbols The used symbols
+	 * @param frequencies The frequency of each used symbol (> 0)
+	 * @param count The number of used symbols
+	 * @param maxLength The longest code allowed (bits), enough for 2^maxLength symbols
+	 */
+	public HuffmanTable(int alphabetSize, int[] symbols, int[] frequencies, int count, int maxLength){
+
+		this((HuffmanNode) null, alphabetSize);
+
+		for (int i = 0; i < count; i++){
+			if (symbols[i] < 0 || symbols[i] >= alphabetSize || frequencies[i] <= 0)
+				throw new IllegalArgumentException("Invalid symbol " + symbols[i]);
+		}
+
+		build(symbols, frequencies.clone(), count, maxLength);
+	}
+
+
+	/**
+	 * Builds the tree and the codes. While the tree is too deep, the frequencies are halved
+	 * (keeping every used symbol above 0) and the tree is rebuilt
+	 * @param symbols The used symbols
+	 * @param frequencies The frequency of each used symbol (modified when halved)
+	 * @param count The number of used symbols
+	 * @param maxLength The longest code allowed (bits)
+	 */
+	private void build(int[] symbols, int[] frequencies, int count, int maxLength){
+
+		nonZeroSymbols = count;
+
+		if (count == 0)
+			return;
+
+		//n symbols cannot all have codes shorter than log2(n) bits
+		maxLength = Math.max(maxLength, 32 - Integer.numberOfLeadingZeros(count - 1));
+
+		while (true){
+
+			ArrayList<HuffmanNode> nodeList = new ArrayList<>(count);
+
+			for (int i = 0; i < count; i++)
+				nodeList.add(new HuffmanNode(symbols[i], frequencies[i]));
+
+			root = HuffmanTreeGenerator.getRoot(nodeList);
+
+			for (int i = 0; i < count; i++)
+				lengths[symbols[i]] = 0;
+
+			if (assignCodes() <= maxLength)
+				return;
+
+			for (int i = 0; i < count; i++)
+				frequencies[i] = (frequencies[i] >> 1) | 1;
+		}
+	}
+
+
+	/**
+	 * Initializes a table for an existing tree (codes are only assigned when encoding)
+	 * @param root The root of the Huffman tree (null for an empty table)
+	 * @param alphabetSize The number of symbols in the alphabet
+	 */
+	HuffmanTable(HuffmanNode root, int alphabetSize){
+
+		this.root = root;
+		codes = new int[alphabetSize];
+		lengths = new int[alphabetSize];
+		symbolBits = getSymbolBits(alphabetSize);
+	}
+
+
+	/**
+	 * Returns the number of bits used to write symbols and symbol counts in the header
+	 * @param alphabetSize The number of symbols in the alphabet
+	 * @return 9 for alphabets of up to 511 symbols, enough bits for <code>alphabetSize</code> otherwise
+	 */
+	public static int getSymbolBits(int alphabetSize){
+		return Math.max(MIN_SYMBOL_BITS, 32 - Integer.numberOfLeadingZeros(alphabetSize));
+	}
+
+
+	/**
+	 * Traverses the tree to generate the code for each symbol. A tree with n leaves is at most
+	 * n - 1 levels deep, and the stack holds at most one pending right child per level
+	 * @return The length of the longest code
+	 */
+	private int assignCodes(){
+
+		HuffmanNode[] stack = new HuffmanNode[nonZeroSymbols + 1];
+		int[] stackCodes = new int[stack.length];		//Bits of the path to each pending node
+		int[] stackLengths = new int[stack.length];		//Depth of each pending node
+		int top = 1;
+		int longest = 0;
+		stack[0] = root;
+
+		while (top > 0){
+
+			top--;
+			HuffmanNode node = stack[top];
+			int code = stackCodes[top];
+			int length = stackLengths[top];
+
+			if (node.getLeft() == null && node.getRight() == null){
+				codes[node.getSymbol()] = code;
+				lengths[node.getSymbol()] = length;
+				longest = Math.max(longest, length);
+				continue;
+			}
+
+			//Right appends a 1 and left a 0; left is pushed last so it is visited first
+			stack[top] = node.getRight();
+			stackCodes[top] = (code << 1) | 1;
+			stackLengths[top++] = length + 1;
+			stack[top] = node.getLeft();
+			stackCodes[top] = code << 1;
+			stackLengths[top++] = length + 1;
+		}
+
+		return longest;
+	}
+
+
+	/**
+	 * Returns the length of a symbol's code
+	 * @param symbol The symbol
+	 * @return The number of bits of its code, 0 if the symbol has no code
+	 */
+	public int getLength(int symbol){
+		return lengths[symbol];
+	}
+
+
+	/**
+	 * Returns the number of bits needed to code the given frequencies with this table
+	 * @param frequencies The frequency of each symbol of the alphabet
+	 * @return The number of bits, -1 if a used symbol has no code
+	 */
+	public long getCodedBits(int[] frequencies){
+
+		long bits = 0;
+
+		for (int i = 0; i < frequencies.length; i++){
+
+			if (frequencies[i] == 0)
+				continue;
+
+			//A tree with a single leaf codes its symbol with no bits
+			boolean single = root != null && root.getSymbol() == i;
+
+			if (lengths[i] == 0 && !single)
+				return -1;
+
+			bits += (long) frequencies[i] * lengths[i];
+		}
+
+		return bits;
+	}
+
+
+	/**
+	 * Returns the size of the header written by <code>writeHeader</code>
+	 * @return The number of bits
+	 */
+	public long getHeaderBits(){
+
+		//Symbol count, plus 1 bit and the symbol per leaf-node, and 1 bit per non-leaf node
+		return symbolBits + (nonZeroSymbols == 0 ? 0 : (symbolBits + 2) * nonZeroSymbols - 1);
+	}
+
+
+	/**
+	 * Writes the code of a symbol
+	 * @param writer The bit stream
+	 * @param symbol The symbol to be written
+	 */
+	public void writeSymbol(BitOutputStream writer, int symbol){
+
+		//A tree with a single leaf needs no bits at all
+		if (lengths[symbol] > 0)
+			writer.write(lengths[symbol], codes[symbol]);
+	}
+
+
+	/**
+	 * Builds the lookup tables used by <code>readSymbol</code>
+	 */
+	void buildLookup(){
+
+		lookup = new int[1 << LOOKUP_BITS];
+		Arrays.fill(lookup, INVALID);
+
+		if (root != null)
+			fillTable(lookup, LOOKUP_BITS, root);
+	}
+
+
+	/**
+	 * Fills the entries of every code that starts at <code>start</code>, walking the tree down
+	 * to <code>bits</code> levels. In the first-level table, subtrees below LOOKUP_BITS get a
+	 * second-level table
+	 * @param table The table to be filled (entries are symbol << 8 | length below <code>start</code>)
+	 * @param bits The number of bits that index the table
+	 * @param start The node that the table starts from
+	 */
+	private void fillTable(int[] table, int bits, HuffmanNode start){
+
+		HuffmanNode[] stack = new HuffmanNode[bits + 2];
+		int[] stackCodes = new int[stack.length];		//Bits of the path to each pending node
+		int[] stackLengths = new int[stack.length];		//Depth of each pending node
+		int top = 1;
+		stack[0] = start;
+
+		while (top > 0){
+
+			top--;
+			HuffmanNode node = stack[top];
+			int code = stackCodes[top];
+			int length = stackLengths[top];
+
+			//Missing children only appear in corrupted trees
+			if (node == null)
+				continue;
+
+			//Every entry that starts with this code decodes to this leaf-node
+			if (node.hasSymbol()){
+				int first = code << (bits - length);
+				int last = first + (1 << (bits - length));
+				Arrays.fill(table, first, last, node.getSymbol() << 8 | length);
+				continue;
+			}
+
+			if (length == bits){
+				if (table == lookup)
+					addSecondLevel(code, node);
+				continue;
+			}
+
+			stack[top] = node.getRight();
+			stackCodes[top] = (code << 1) | 1;
+			stackLengths[top++] = length + 1;
+			stack[top] = node.getLeft();
+			stackCodes[top] = code << 1;
+			stackLengths[top++] = length + 1;
+		}
+	}
+
+
+	/**
+	 * Decodes the codes that start with a LOOKUP_BITS prefix: with a second-level table indexed
+	 * by as many bits as the deepest code below the prefix needs, or by traversing the subtree
+	 * when it is deeper than MAX_SECOND_BITS
+	 * @param prefix The first LOOKUP_BITS bits of the codes
+	 * @param node The node reached with those bits
+	 */
+	private void addSecondLevel(int prefix, HuffmanNode node){
+
+		int depth = getDepth(node, MAX_SECOND_BITS);
+
+		//A subtree without leaf-nodes only appears in corrupted trees
+		if (depth == 0)
+			return;
+
+		if (depth > MAX_SECOND_BITS){
+			if (longCodes == null)
+				longCodes = new HuffmanNode[1 << LOOKUP_BITS];
+			longCodes[prefix] = node;
+			lookup[prefix] = LONG_CODE;
+			return;
+		}
+
+		if (secondTables == null){
+			secondTables = new int[1 << LOOKUP_BITS][];
+			secondBits = new int[1 << LOOKUP_BITS];
+		}
+
+		int[] table = new int[1 << depth];
+		Arrays.fill(table, INVALID);
+		fillTable(table, depth, node);
+
+		secondTables[secondCount] = table;
+		secondBits[secondCount] = depth;
+		lookup[prefix] = SECOND_LEVEL - secondCount++;
+	}
+
+
+	/**
+	 * Returns the depth of the deepest leaf-node below a node, without looking further than
+	 * <code>limit</code> levels
+	 * @param start The node
+	 * @param limit The deepest level to explore
+	 * @return The depth (0 if there is no leaf-node), or <code>limit + 1</code> if it is deeper
+	 */
+	private static int getDepth(HuffmanNode start, int limit){
+
+		HuffmanNode[] stack = new HuffmanNode[limit + 2];
+		int[] stackLengths = new int[stack.length];		//Depth of each pending node
+		int top = 1;
+		int deepest = 0;
+		stack[0] = start;
+
+		while (top > 0){
+
+			top--;
+			HuffmanNode node = stack[top];
+			int length = stackLengths[top];
+
+			if (node == null)
+				continue;
+
+			if (node.hasSymbol()){
+				deepest = Math.max(deepest, length);
+				continue;
+			}
+
+			if (length == limit)
+				return limit + 1;
+
+			stack[top] = node.getRight();
+			stackLengths[top++] = length + 1;
+			stack[top] = node.getLeft();
+			stackLengths[top++] = length + 1;
+		}
+
+		return deepest;
+	}
+
+
+	/**
+	 * Reads one symbol with the lookup tables (codes longer than LOOKUP_BITS use a second
+	 * lookup, and only the longest codes finish by traversing the tree)
+	 * @param reader The bit stream
+	 * @return The decoded symbol
+	 * @throws IOException If the table is empty or the bits do not match any code
+	 */
+	public int readSymbol(BitReader reader) throws IOException{
+
+		int index = reader.peek(LOOKUP_BITS);
+		int entry = lookup[index];
+
+		if (entry >= 0){
+			reader.skip(entry & 0xff);
+			return entry >>> 8;
+		}
+
+		if (entry <= SECOND_LEVEL){
+			int table = SECOND_LEVEL - entry;
+			reader.skip(LOOKUP_BITS);
+			entry = secondTables[table][reader.peek(secondBits[table])];
+
+			if (entry < 0)
+				throw new IOException("Invalid code");
+
+			reader.skip(entry & 0xff);
+			return entry >>> 8;
+		}
+
+		if (entry == INVALID)
+			throw new IOException(root == null ? "Symbol read from an empty table" : "Invalid code");
+
+		reader.skip(LOOKUP_BITS);
+		HuffmanNode pointer = longCodes[index];
+
+		while (!pointer.hasSymbol()){
+
+			//0 goes left, 1 right
+			pointer = reader.read(1) == 0 ? pointer.getLeft() : pointer.getRight();
+
+			if (pointer == null)
+				throw new IOException("Invalid code");
+		}
+
+		return pointer.getSymbol();
+	}
+
+
+	/**
+	 * Stores the tree using Preorder Traversal, preceded by the number of symbols
+	 * @param writer The bit stream
+	 */
+	public void writeHeader(BitOutputStream writer){
+
+		writer.write(symbolBits, nonZeroSymbols);
+
+		if (root != null)
+			writeTree(writer);
+	}
+
+
+	/**
+	 * Writes every node in preorder (1 + symbol for leaf-nodes, 0 otherwise)
+	 * @param writer The bit stream
+	 */
+	private void writeTree(BitOutputStream writer){
+
+		HuffmanNode[] stack = new HuffmanNode[nonZeroSymbols + 1];
+		int top = 1;
+		stack[0] = root;
+
+		while (top > 0){
+
+			HuffmanNode node = stack[--top];
+
+			if (node.getLeft() == null && node.getRight() == null){
+				writer.write(1, 1);
+				writer.write(symbolBits, node.getSymbol());
+				continue;
+			}
+
+			writer.write(1, 0);
+			stack[top++] = node.getRight();
+			stack[top++] = node.getLeft();
+		}
+	}
+
+
+	/**
+	 * Recreates a table stored with <code>writeHeader</code>
+	 * @param reader The bit stream
+	 * @param alphabetSize The number of symbols in the alphabet
+	 * @return The table
+	 * @throws IOException If the header is truncated or invalid
+	 */
+	public static HuffmanTable readHeader(BitReader reader, int alphabetSize) throws IOException{
+
+		int count = reader.read(getSymbolBits(alphabetSize));
+
+		if (count > alphabetSize)
+			throw new IOException("Invalid table header");
+
+		HuffmanTable table = new HuffmanTable(count == 0 ? null : new HuffmanNode(null), alphabetSize);
+		table.nonZeroSymbols = count;
+
+		if (count > 0)
+			table.readTree(reader);
+
+		if (reader.isOverrun())
+			throw new IOException("Invalid table header");
+
+		table.buildLookup();
+		return table;
+	}
+
+
+	/**
+	 * Recreates the tree below the root (using Preorder traversal). The right child of every
+	 * non-leaf node waits on the stack while its left subtree is read, and codes are at most
+	 * MAX_LENGTH bits, so the stack never holds more than MAX_LENGTH + 1 nodes
+	 * @param reader The bit stream
+	 * @throws IOException If the header is truncated or invalid
+	 */
+	private void readTree(BitReader reader) throws IOException{
+
+		HuffmanNode[] pending = new HuffmanNode[MAX_LENGTH + 2];
+		int[] pendingLengths = new int[pending.length];		//Depth of each pending node
+		int top = 0;
+		HuffmanNode node = root;
+		int length = 0;
+
+		while (true){
+
+			int bit = reader.read(1);
+
+			if (reader.isOverrun() || length > MAX_LENGTH)
+				throw new IOException("Invalid table header");
+
+			//0 represents a non-leaf node: its left child is read next
+			if (bit == 0){
+				node.setLeft(new HuffmanNode(null));
+				node.setRight(new HuffmanNode(null));
+				pending[top] = node.getRight();
+				pendingLengths[top++] = length + 1;
+				node = node.getLeft();
+				length++;
+				continue;
+			}
+
+			//1 represents a leaf-node
+			int symbol = reader.read(symbolBits);
+
+			if (symbol >= lengths.length)
+				throw new IOException("Invalid table header");
+
+			node.setSymbol(symbol);
+
+			if (top == 0)
+				return;
+
+			node = pending[--top];
+			length = pendingLengths[top];
+		}
+	}
+
+}
@@ -0,0 +1,733 @@
+package huffman;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import huffman.ThirdPartyClasses.BitOutputStream;
+
+/**
+ * LZ BLOCK CODEC
+ * Encodes the output of <code>LZMatchFinder</code> with two Huffman tables (deflate-like):
+ * one for literals, lengths and the end of block, and another one for distances.
+ * <P>
+ * Blocks can also be written as four interleaved streams (token i goes to stream i % 4). Each
+ * stream is read by its own <code>BitReader</code>, so the decoder works on four independent
+ * chains of code lengths instead of a single serial one.
+ * <P>
+ * Finally, blocks can be written as separate symbol streams (literals and lengths, distances,
+ * extra bits), each coded by the <code>EntropyCoder</code> that makes it smallest.
+ * <P>
+ * Single-stream blocks can also reuse the tables of the previous single-stream block when they
+ * code it almost as well, which saves writing the tables and rebuilding them when decoding.
+ * Blocks are first encoded with their own tables (in any order, by any number of codecs), and
+ * the codec that writes them in input order then decides whether to reuse the previous tables
+ * @author Andres Beltran
+ * @version 1.0
+ */
+
+public class LZBlockCodec {
+
+	public static final int END_OF_BLOCK = 256;			//Symbol that marks the end of a block
+	public static final int LITERAL_LENGTH_SYMBOLS = 286;	//Literals (0 - 255), end of block (256) and lengths (257 - 285)
+	public static final int DISTANCE_SYMBOLS = 30;
+	public static final int STREAMS = 4;					//Number of streams of an interleaved block
+
+	//Entropy coders that can be chosen for each symbol stream, indexed by the ID written in the block.
+	//Both directions build their coders from CODERS, so a new coder is only added there
+	public static final int HUFFMAN_CODER = 0;
+	public static final int ANS_CODER = 1;
+	public static final int BEST_CODER = -1;				//Picks the coder with the smallest estimate
+	private static CoderFactory[] CODERS = {
+		new CoderFactory(){
+			public EntropyCoder create(int maxCodeLength){
+				return new HuffmanCoder(maxCodeLength);
+			}
+		},
+		new CoderFactory(){
+			public EntropyCoder create(int maxCodeLength){
+				return new AnsCoder();
+			}
+		}
+	};
+	private static EntropyCoder[] DECODERS = createCoders(CompressionConfig.MAX_CODE_LENGTH);	//The limit only applies when encoding
+
+	//Base value and number of extra bits of each length symbol (257 - 285)
+	private static int[] LENGTH_BASE = {3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+			35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258};
+	private static int[] LENGTH_EXTRA = {0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+			3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0};
+
+	//Base value and number of extra bits of each distance symbol
+	private static int[] DISTANCE_BASE = {1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193,
+			257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577};
+	private static int[] DISTANCE_EXTRA = {0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6,
+			7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13};
+
+	private static int[] LENGTH_CODE = new int[LZMatchFinder.MAX_MATCH + 1];		//Maps each length to its symbol
+	private static int[] DISTANCE_CODE = new int[LZMatchFinder.WINDOW_SIZE + 1];	//Maps each distance to its symbol
+
+	static {
+		for (int code = 0; code < LENGTH_BASE.length; code++)
+			for (int length = LENGTH_BASE[code]; length < LENGTH_BASE[code] + (1 << LENGTH_EXTRA[code]) && length <= LZMatchFinder.MAX_MATCH; length++)
+				LENGTH_CODE[length] = code;
+
+		//258 has its own symbol even though 227 + 31 also reaches it
+		LENGTH_CODE[LZMatchFinder.MAX_MATCH] = LENGTH_BASE.length - 1;
+
+		for (int code = 0; code < DISTANCE_BASE.length; code++)
+			for (int distance = DISTANCE_BASE[code]; distance < DISTANCE_BASE[code] + (1 << DISTANCE_EXTRA[code]); distance++)
+				DISTANCE_CODE[distance] = code;
+	}
+
+	private LZMatchFinder matchFinder;
+	private int[] lengths = new int[0];		//Literal or length of each token
+	private int[] distances = new int[0];	//Distance of each token (0 for literals)
+	private int tokens;						//Number of tokens in the block being encoded
+	private int[] literalFrequencies;		//Frequencies of the block being encoded
+	private int[] distanceFrequencies;
+	private HuffmanTable literalTable;		//Codes of the block being encoded
+	private HuffmanTable distanceTable;
+	private HuffmanTable previousLiteralTable;	//Tables of the last single-stream block (null if none)
+	private HuffmanTable previousDistanceTable;
+	private int maxCodeLength;				//Longest Huffman code of the block tables
+	private EntropyCoder[] coders;			//Encoders of coded blocks, limited to maxCodeLength
+	private ByteArrayOutputStream[] streams = new ByteArrayOutputStream[STREAMS + 1];	//Tables and interleaved streams
+
+
+	/**
+	 * Initializes the codec with no limit on the code length
+	 * @param level The compression level (1 - 9)
+	 */
+	public LZBlockCodec(int level){
+		this(level, CompressionConfig.MAX_CODE_LENGTH);
+	}
+
+
+	/**
+	 * Initializes the codec
+	 * @param level The compression level (1 - 9)
+	 * @param maxCodeLength The longest Huffman code (bits)
+	 */
+	public LZBlockCodec(int level, int maxCodeLength){
+		matchFinder = new LZMatchFinder(level);
+		this.maxCodeLength = maxCodeLength;
+		coders = createCoders(maxCodeLength);
+	}
+
+
+	/**
+	 * Creates one coder of each ID in <code>CODERS</code>
+	 * @param maxCodeLength The longest Huffman code (bits)
+	 * @return The coders, indexed by their ID
+	 */
+	private static EntropyCoder[] createCoders(int maxCodeLength){
+
+		EntropyCoder[] coders = new EntropyCoder[CODERS.length];
+		for (int i = 0; i < coders.length; i++)
+			coders[i] = CODERS[i].create(maxCodeLength);
+
+		return coders;
+	}
+
+
+	/**
+	 * Compresses a block: both table headers followed by the coded tokens and the end of block
+	 * @param writer The bit stream
+	 * @param block The data
+	 * @param offset The index of the first byte
+	 * @param length The number of bytes to compress
+	 */
+	public void encode(BitOutputStream writer, byte[] block, int offset, int length){
+
+		prepare(block, offset, length);
+
+		literalTable.writeHeader(writer);
+		distanceTable.writeHeader(writer);
+
+		for (int i = 0; i < tokens; i++)
+			writeToken(writer, lengths[i], distances[i], literalTable, distanceTable);
+
+		literalTable.writeSymbol(writer, END_OF_BLOCK);
+	}
+
+
+	/**
+	 * Returns the tokens and tables of the block just written by <code>encode</code>, so it can
+	 * be written again with the tables of the previous block once that block is known
+	 * @return A copy of the tokens (one int each), their frequencies and the block's tables
+	 */
+	public ParsedBlock keepTokens(){
+
+		ParsedBlock parsed = new ParsedBlock();
+		parsed.tokens = new int[tokens];
+
+		for (int i = 0; i < tokens; i++)
+			parsed.tokens[i] = distances[i] << 9 | lengths[i];
+
+		parsed.literalFrequencies = literalFrequencies;
+		parsed.distanceFrequencies = distanceFrequencies;
+		parsed.literalTable = literalTable;
+		parsed.distanceTable = distanceTable;
+		return parsed;
+	}
+
+
+	/**
+	 * Tells whether the tables of the previous block code a block in at most
+	 * <code>reuseThreshold</code> percent more bits than its own tables (headers included).
+	 * Blocks must be passed in input order
+	 * @param parsed The block, as returned by <code>keepTokens</code>
+	 * @param reuseThreshold The percentage, or a negative number to always write new tables
+	 * @return True if the block should be written with <code>encodeReused</code>
+	 */
+	public boolean canReuseTables(ParsedBlock parsed, int reuseThreshold){
+
+		if (reuseThreshold < 0 || previousLiteralTable == null)
+			return false;
+
+		long literalBits = previousLiteralTable.getCodedBits(parsed.literalFrequencies);
+		long distanceBits = previousDistanceTable.getCodedBits(parsed.distanceFrequencies);
+
+		//Every symbol of the block must have a code in the previous tables
+		if (literalBits < 0 || distanceBits < 0)
+			return false;
+
+		long fresh = parsed.literalTable.getCodedBits(parsed.literalFrequencies)
+				+ parsed.distanceTable.getCodedBits(parsed.distanceFrequencies)
+				+ parsed.literalTable.getHeaderBits() + parsed.distanceTable.getHeaderBits();
+
+		return (literalBits + distanceBits) * 100 <= fresh * (100 + reuseThreshold);
+	}
+
+
+	/**
+	 * Compresses a block with the tables of the previous block, without table headers
+	 * @param writer The bit stream
+	 * @param parsed The block, as returned by <code>keepTokens</code>
+	 */
+	public void encodeReused(BitOutputStream writer, ParsedBlock parsed){
+
+		for (int token : parsed.tokens)
+			writeToken(writer, token & 0x1ff, token >>> 9, previousLiteralTable, previousDistanceTable);
+
+		previousLiteralTable.writeSymbol(writer, END_OF_BLOCK);
+	}
+
+
+	/**
+	 * Makes the tables of a block written with its own tables the ones the next block can reuse
+	 * @param parsed The block, as returned by <code>keepTokens</code>
+	 */
+	public void keepTables(ParsedBlock parsed){
+		previousLiteralTable = parsed.literalTable;
+		previousDistanceTable = parsed.distanceTable;
+	}
+
+
+	/**
+	 * Forgets the tables of the previous block, so the next block writes its own tables
+	 * (when a new container starts, or when the last block was not written as encoded)
+	 */
+	public void resetTables(){
+		previousLiteralTable = null;
+		previousDistanceTable = null;
+	}
+
+
+	/**
+	 * Compresses a block as four interleaved streams. The payload holds the size of the tables
+	 * and of the first three streams, followed by the tables and the four streams
+	 * @param output Receives the payload
+	 * @param block The data
+	 * @param offset The index of the first byte
+	 * @param length The number of bytes to compress
+	 * @throws IOException If there is an error writing the payload
+	 */
+	public void encodeInterleaved(OutputStream output, byte[] block, int offset, int length) throws IOException{
+
+		prepare(block, offset, length);
+
+		BitOutputStream[] writers = new BitOutputStream[STREAMS + 1];
+		for (int i = 0; i < writers.length; i++){
+			if (streams[i] == null)
+				streams[i] = new ByteArrayOutputStream();
+			streams[i].reset();
+			writers[i] = new BitOutputStream(streams[i]);
+		}
+
+		//The tables go first, in their own section
+		literalTable.writeHeader(writers[STREAMS]);
+		distanceTable.writeHeader(writers[STREAMS]);
+
+		for (int i = 0; i < tokens; i++)
+			writeToken(writers[i % STREAMS], lengths[i], distances[i], literalTable, distanceTable);
+
+		//The end of block takes the place of the next token
+		literalTable.writeSymbol(writers[tokens % STREAMS], END_OF_BLOCK);
+
+		for (BitOutputStream writer : writers)
+			writer.flush();
+
+		DataOutputStream data = new DataOutputStream(output);
+		data.writeInt(streams[STREAMS].size());
+		for (int i = 0; i < STREAMS - 1; i++)
+			data.writeInt(streams[i].size());
+
+		streams[STREAMS].writeTo(data);
+		for (int i = 0; i < STREAMS; i++)
+			streams[i].writeTo(data);
+	}
+
+
+	/**
+	 * Compresses a block as separate streams: the number of tokens and matches, the literals and
+	 * lengths, the distances, and the extra bits of each match. Each symbol stream starts with
+	 * the ID of its coder
+	 * @param writer The bit stream
+	 * @param block The data
+	 * @param offset The index of the first byte
+	 * @param length The number of bytes to compress
+	 * @param coder The coder for both symbol streams (HUFFMAN_CODER, ANS_CODER or BEST_CODER)
+	 */
+	public void encodeCoded(BitOutputStream writer, byte[] block, int offset, int length, int coder){
+
+		parse(block, offset, length);
+
+		//Splits the tokens into a stream of literals and lengths, and a stream of distances
+		int[] literalSymbols = new int[tokens];
+		int[] distanceSymbols = new int[tokens];
+		int matches = 0;
+
+		for (int i = 0; i < tokens; i++){
+			if (distances[i] == 0){
+				literalSymbols[i] = lengths[i];
+			}else{
+				literalSymbols[i] = END_OF_BLOCK + 1 + LENGTH_CODE[lengths[i]];
+				distanceSymbols[matches++] = DISTANCE_CODE[distances[i]];
+			}
+		}
+
+		writer.write(32, tokens);
+		writer.write(32, matches);
+		writeStream(writer, literalSymbols, tokens, literalFrequencies, coder);
+		writeStream(writer, distanceSymbols, matches, distanceFrequencies, coder);
+
+		for (int i = 0; i < tokens; i++){
+
+			if (distances[i] == 0)
+				continue;
+
+			int lengthCode = LENGTH_CODE[lengths[i]];
+			if (LENGTH_EXTRA[lengthCode] > 0)
+				writer.write(LENGTH_EXTRA[lengthCode], lengths[i] - LENGTH_BASE[lengthCode]);
+
+			int distanceCode = DISTANCE_CODE[distances[i]];
+			if (DISTANCE_EXTRA[distanceCode] > 0)
+				writer.write(DISTANCE_EXTRA[distanceCode], distances[i] - DISTANCE_BASE[distanceCode]);
+		}
+	}
+
+
+	/**
+	 * Writes a symbol stream with the chosen coder, preceded by the coder's ID
+	 * @param writer The bit stream
+	 * @param symbols The symbols
+	 * @param count The number of symbols
+	 * @param frequencies The frequency of each symbol
+	 * @param coder The ID of the coder, or BEST_CODER to pick the smallest estimate
+	 */
+	private void writeStream(BitOutputStream writer, int[] symbols, int count, int[] frequencies, int coder){
+
+		if (coder == BEST_CODER){
+			coder = 0;
+			long best = Long.MAX_VALUE;
+
+			for (int i = 0; i < coders.length; i++){
+				long estimate = coders[i].estimateBits(frequencies);
+				if (estimate < best){
+					best = estimate;
+					coder = i;
+				}
+			}
+		}
+
+		writer.write(8, coder);
+		coders[coder].encode(writer, symbols, count, frequencies);
+	}
+
+
+	/**
+	 * Parses a block into tokens and builds the tables for them
+	 * @param block The data
+	 * @param offset The index of the first byte
+	 * @param length The number of bytes to compress
+	 */
+	private void prepare(byte[] block, int offset, int length){
+
+		parse(block, offset, length);
+
+		literalFrequencies[END_OF_BLOCK] = 1;
+
+		literalTable = new HuffmanTable(literalFrequencies, maxCodeLength);
+		distanceTable = new HuffmanTable(distanceFrequencies, maxCodeLength);
+	}
+
+
+	/**
+	 * Parses a block into tokens and counts the frequency of each symbol
+	 * @param block The data
+	 * @param offset The index of the first byte
+	 * @param length The number of bytes to compress
+	 */
+	private void parse(byte[] block, int offset, int length){
+
+		if (lengths.length < length){
+			lengths = new int[length];
+			distances = new int[length];
+		}
+
+		tokens = matchFinder.parse(block, offset, length, lengths, distances);
+
+		literalFrequencies = new int[LITERAL_LENGTH_SYMBOLS];
+		distanceFrequencies = new int[DISTANCE_SYMBOLS];
+
+		for (int i = 0; i < tokens; i++){
+			if (distances[i] == 0){
+				literalFrequencies[lengths[i]]++;
+			}else{
+				literalFrequencies[END_OF_BLOCK + 1 + LENGTH_CODE[lengths[i]]]++;
+				distanceFrequencies[DISTANCE_CODE[distances[i]]]++;
+			}
+		}
+	}
+
+
+	/**
+	 * Writes the codes and extra bits of a token
+	 * @param writer The bit stream
+	 * @param length The literal, or the length of the match
+	 * @param distance The distance of the match (0 for literals)
+	 * @param literalTable The table of literals, lengths and end of block
+	 * @param distanceTable The table of distances
+	 */
+	private static void writeToken(BitOutputStream writer, int length, int distance,
+			HuffmanTable literalTable, HuffmanTable distanceTable){
+
+		if (distance == 0){
+			literalTable.writeSymbol(writer, length);
+			return;
+		}
+
+		int lengthCode = LENGTH_CODE[length];
+		literalTable.writeSymbol(writer, END_OF_BLOCK + 1 + lengthCode);
+		if (LENGTH_EXTRA[lengthCode] > 0)
+			writer.write(LENGTH_EXTRA[lengthCode], length - LENGTH_BASE[lengthCode]);
+
+		int distanceCode = DISTANCE_CODE[distance];
+		distanceTable.writeSymbol(writer, distanceCode);
+		if (DISTANCE_EXTRA[distanceCode] > 0)
+			writer.write(DISTANCE_EXTRA[distanceCode], distance - DISTANCE_BASE[distanceCode]);
+	}
+
+
+	/**
+	 * Decompresses a block written by <code>encode</code>
+	 * @param reader The bit stream
+	 * @param output Receives the decoded bytes
+	 * @param offset The index of the first byte to write
+	 * @param length The number of bytes of the original block
+	 * @param checksum Receives the decoded bytes while they are in cache
+	 * @throws IOException If the block is corrupted
+	 */
+	public static void decode(BitReader reader, byte[] output, int offset, int length, BlockChecksum checksum) throws IOException{
+		decode(reader, readTables(reader), output, offset, length, checksum);
+	}
+
+
+	/**
+	 * Reads the table headers of a block written by <code>encode</code>
+	 * @param reader The bit stream
+	 * @return The table of literals, lengths and end of block, and the table of distances
+	 * @throws IOException If the headers are corrupted
+	 */
+	public static HuffmanTable[] readTables(BitReader reader) throws IOException{
+
+		HuffmanTable literalTable = HuffmanTable.readHeader(reader, LITERAL_LENGTH_SYMBOLS);
+		HuffmanTable distanceTable = HuffmanTable.readHeader(reader, DISTANCE_SYMBOLS);
+		return new HuffmanTable[] {literalTable, distanceTable};
+	}
+
+
+	/**
+	 * Decompresses the tokens of a block written by <code>encode</code>, after its tables
+	 * (or of a block that reused the tables of a previous one)
+	 * @param reader The bit stream
+	 * @param tables The tables returned by <code>readTables</code>
+	 * @param output Receives the decoded bytes
+	 * @param offset The index of the first byte to write
+	 * @param length The number of bytes of the original block
+	 * @param checksum Receives the decoded bytes while they are in cache
+	 * @throws IOException If the block is corrupted
+	 */
+	public static void decode(BitReader reader, HuffmanTable[] tables, byte[] output, int offset, int length,
+			BlockChecksum checksum) throws IOException{
+
+		HuffmanTable literalTable = tables[0];
+		HuffmanTable distanceTable = tables[1];
+
+		int pos = offset;
+		int end = offset + length;
+
+		while (pos >= 0){
+			pos = decodeToken(reader, literalTable, distanceTable, output, offset, pos, end);
+			checksum.update(pos);
+		}
+
+		if (reader.isOverrun())
+			throw new IOException("Unexpected end of block");
+
+		if (-pos - 1 != end)
+			throw new IOException("Block shorter than expected");
+	}
+
+
+	/**
+	 * Decompresses a block written by <code>encodeInterleaved</code>, taking one token
+	 * from each stream in turn
+	 * @param payload The encoded block
+	 * @param payloadLength The number of bytes of the encoded block
+	 * @param readers Four readers (their previous contents are discarded)
+	 * @param output Receives the decoded bytes
+	 * @param offset The index of the first byte to write
+	 * @param length The number of bytes of the original block
+	 * @param checksum Receives the decoded bytes while they are in cache
+	 * @throws IOException If the block is corrupted
+	 */
+	public static void decodeInterleaved(byte[] payload, int payloadLength, BitReader[] readers,
+			byte[] output, int offset, int length, BlockChecksum checksum) throws IOException{
+
+		//Sizes of the tables and of each stream
+		int[] sizes = new int[STREAMS + 1];
+		int start = 4 * STREAMS;
+		long remaining = payloadLength - start;
+
+		if (remaining < 0)
+			throw new IOException("Invalid stream sizes");
+
+		for (int i = 0; i < STREAMS; i++){
+			sizes[i] = readInt(payload, 4 * i);
+			remaining -= sizes[i];
+
+			if (sizes[i] < 0 || remaining < 0)
+				throw new IOException("Invalid stream sizes");
+		}
+
+		sizes[STREAMS] = (int) remaining;
+
+		BitReader r0 = readers[0], r1 = readers[1], r2 = readers[2], r3 = readers[3];
+
+		r0.reset(payload, start, sizes[0]);
+		HuffmanTable literalTable = HuffmanTable.readHeader(r0, LITERAL_LENGTH_SYMBOLS);
+		HuffmanTable distanceTable = HuffmanTable.readHeader(r0, DISTANCE_SYMBOLS);
+		start += sizes[0];
+
+		r0.reset(payload, start, sizes[1]);
+		start += sizes[1];
+		r1.reset(payload, start, sizes[2]);
+		start += sizes[2];
+		r2.reset(payload, start, sizes[3]);
+		start += sizes[3];
+		r3.reset(payload, start, sizes[4]);
+
+		int pos = offset;
+		int end = offset + length;
+
+		//One token from each stream per iteration; a negative position marks the end of block
+		while (true){
+			if ((pos = decodeToken(r0, literalTable, distanceTable, output, offset, pos, end)) < 0)
+				break;
+			if ((pos = decodeToken(r1, literalTable, distanceTable, output, offset, pos, end)) < 0)
+				break;
+			if ((pos = decodeToken(r2, literalTable, distanceTable, output, offset, pos, end)) < 0)
+				break;
+			if ((pos = decodeToken(r3, literalTable, distanceTable, output, offset, pos, end)) < 0)
+				break;
+			checksum.update(pos);
+		}
+
+		if (r0.isOverrun() || r1.isOverrun() || r2.isOverrun() || r3.isOverrun())
+			throw new IOException("Unexpected end of block");
+
+		if (-pos - 1 != end)
+			throw new IOException("Block shorter than expected");
+	}
+
+
+	/**
+	 * Decompresses a block written by <code>encodeCoded</code>
+	 * @param reader The bit stream
+	 * @param output Receives the decoded bytes
+	 * @param offset The index of the first byte to write
+	 * @param length The number of bytes of the original block
+	 * @param checksum Receives the decoded bytes while they are in cache
+	 * @throws IOException If the block is corrupted
+	 */
+	public static void decodeCoded(BitReader reader, byte[] output, int offset, int length, BlockChecksum checksum) throws IOException{
+
+		int tokens = reader.read(32);
+		int matches = reader.read(32);
+
+		if (tokens < 0 || tokens > length || matches < 0 || matches > tokens)
+			throw new IOException("Invalid token count");
+
+		int[] literalSymbols = new int[tokens];
+		int[] distanceSymbols = new int[matches];
+		readStream(reader, literalSymbols, tokens, LITERAL_LENGTH_SYMBOLS);
+		readStream(reader, distanceSymbols, matches, DISTANCE_SYMBOLS);
+
+		int pos = offset;
+		int end = offset + length;
+		int match = 0;
+
+		for (int i = 0; i < tokens; i++){
+
+			checksum.update(pos);
+			int symbol = literalSymbols[i];
+
+			if (symbol < END_OF_BLOCK){
+				if (pos == end)
+					throw new IOException("Block longer than expected");
+				output[pos++] = (byte) symbol;
+				continue;
+			}
+
+			if (symbol == END_OF_BLOCK || match == matches)
+				throw new IOException("Invalid match");
+
+			int lengthCode = symbol - END_OF_BLOCK - 1;
+			int matchLength = LENGTH_BASE[lengthCode] + readExtra(reader, LENGTH_EXTRA[lengthCode]);
+			int distanceCode = distanceSymbols[match++];
+			int distance = DISTANCE_BASE[distanceCode] + readExtra(reader, DISTANCE_EXTRA[distanceCode]);
+
+			if (distance > pos - offset || matchLength > end - pos)
+				throw new IOException("Invalid match");
+
+			for (int j = 0; j < matchLength; j++, pos++)
+				output[pos] = output[pos - distance];
+		}
+
+		if (reader.isOverrun())
+			throw new IOException("Unexpected end of block");
+
+		if (pos != end || match != matches)
+			throw new IOException("Block shorter than expected");
+	}
+
+
+	/**
+	 * Reads a symbol stream written by <code>writeStream</code>
+	 * @param reader The bit stream
+	 * @param symbols Receives the symbols
+	 * @param count The number of symbols
+	 * @param alphabetSize The number of symbols in the alphabet
+	 * @throws IOException If the stream is corrupted
+	 */
+	private static void readStream(BitReader reader, int[] symbols, int count, int alphabetSize) throws IOException{
+
+		int coder = reader.read(8);
+
+		if (coder >= DECODERS.length)
+			throw new IOException("Unknown entropy coder " + coder);
+
+		DECODERS[coder].decode(reader, symbols, count, alphabetSize);
+	}
+
+
+	/**
+	 * Decodes one token and writes its bytes
+	 * @param reader The bit stream
+	 * @param literalTable The table of literals, lengths and end of block
+	 * @param distanceTable The table of distances
+	 * @param output Receives the decoded bytes
+	 * @param offset The index of the first byte of the block
+	 * @param pos The index of the next byte to write
+	 * @param end The index after the last byte of the block
+	 * @return The new position, or (-position - 1) if the end of block was read
+	 * @throws IOException If the token is invalid
+	 */
+	private static int decodeToken(BitReader reader, HuffmanTable literalTable, HuffmanTable distanceTable,
+			byte[] output, int offset, int pos, int end) throws IOException{
+
+		int symbol = literalTable.readSymbol(reader);
+
+		if (symbol == END_OF_BLOCK)
+			return -pos - 1;
+
+		if (symbol < END_OF_BLOCK){
+			if (pos == end)
+				throw new IOException("Block longer than expected");
+			output[pos] = (byte) symbol;
+			return pos + 1;
+		}
+
+		int lengthCode = symbol - END_OF_BLOCK - 1;
+		int matchLength = LENGTH_BASE[lengthCode] + readExtra(reader, LENGTH_EXTRA[lengthCode]);
+		int distanceCode = distanceTable.readSymbol(reader);
+		int distance = DISTANCE_BASE[distanceCode] + readExtra(reader, DISTANCE_EXTRA[distanceCode]);
+
+		if (distance > pos - offset || matchLength > end - pos)
+			throw new IOException("Invalid match");
+
+		//Copies byte by byte since the match may overlap the bytes being written
+		for (int i = 0; i < matchLength; i++, pos++)
+			output[pos] = output[pos - distance];
+
+		return pos;
+	}
+
+
+	/**
+	 * Reads a big-endian int from a byte array
+	 * @param data The array
+	 * @param index The index of the first byte
+	 * @return The int
+	 */
+	private static int readInt(byte[] data, int index){
+		return (data[index] & 0xff) << 24 | (data[index + 1] & 0xff) << 16 | (data[index + 2] & 0xff) << 8 | (data[index + 3] & 0xff);
+	}
+
+
+	/**
+	 * Reads the extra bits of a length or distance
+	 * @param reader The bit stream
+	 * @param bits The number of extra bits
+	 * @return The value of the extra bits
+	 * @throws IOException If there is an error reading the bits
+	 */
+	private static int readExtra(BitReader reader, int bits) throws IOException{
+		return bits == 0 ? 0 : reader.read(bits);
+	}
+
+
+	/**
+	 * The tokens and tables of a block, kept after it was encoded with its own tables
+	 */
+	public static class ParsedBlock {
+
+		private int[] tokens;					//Distance << 9 | literal or length of each token
+		private int[] literalFrequencies;		//Frequencies of the block
+		private int[] distanceFrequencies;
+		private HuffmanTable literalTable;		//Tables built for the block
+		private HuffmanTable distanceTable;
+	}
+
+
+	/**
+	 * Creates the coder of one ID, limited to the codec's code length where that applies
+	 */
+	private interface CoderFactory {
+		EntropyCoder create(int maxCodeLength);
+	}
+
+}
\ No newline at end of file
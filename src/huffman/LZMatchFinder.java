@@ -0,0 +1,195 @@
+package huffman;
+import java.util.Arrays;
+
+/**
+ * LZ77 MATCH FINDER
+ * Finds repeated strings inside a sliding window using hash chains. Higher levels
+ * follow longer chains and defer matches (lazy matching) to get better ratios
+ * @author Andres Beltran
+ * @version 1.0
+ */
+
+public class LZMatchFinder {
+
+	public static final int MIN_MATCH = 3;				//Shortest match worth encoding
+	public static final int MAX_MATCH = 258;			//Longest match that can be encoded
+	public static final int WINDOW_SIZE = 32768;		//Size of the sliding window
+	private static int WINDOW_MASK = WINDOW_SIZE - 1;
+	private static int HASH_BITS = 15;
+	private static int HASH_SIZE = 1 << HASH_BITS;
+
+	//Search effort for each level (1 - 9): maximum chain length, length that stops the search, lazy matching
+	private static int[] MAX_CHAIN = {0, 4, 8, 32, 16, 32, 128, 256, 1024, 4096};
+	private static int[] NICE_LENGTH = {0, 8, 16, 32, 16, 32, 128, 128, 258, 258};
+	private static boolean[] LAZY = {false, false, false, false, true, true, true, true, true, true};
+
+	private int[] head = new int[HASH_SIZE];		//Most recent position for each hash
+	private int[] prev = new int[WINDOW_SIZE];		//Previous position with the same hash
+	private int maxChain;
+	private int niceLength;
+	private boolean lazy;
+
+	private byte[] data;		//Block being parsed
+	private int end;			//End of the block
+	private int nextInsert;		//Next position to be inserted in the hash chains
+	private int matchLength;	//Length of the last match found
+	private int matchDistance;	//Distance of the last match found
+
+
+	/**
+	 * Initializes the match finder
+	 * @param level The compression level (1 fastest - 9 best ratio)
+	 */
+	public LZMatchFinder(int level){
+
+		if (level < 1 || level > 9)
+			throw new IllegalArgumentException("Level must be between 1 and 9");
+
+		maxChain = MAX_CHAIN[level];
+		niceLength = NICE_LENGTH[level];
+		lazy = LAZY[level];
+	}
+
+
+	/**
+	 * Splits a block into literals and matches. A literal is stored as its byte value
+	 * with distance 0, and a match as its length and distance
+	 * @param block The data
+	 * @param offset The index of the first byte
+	 * @param length The number of bytes to parse
+	 * @param lengths Receives the literal or match length of each token
+	 * @param distances Receives the distance of each token (0 for literals)
+	 * @return The number of tokens
+	 */
+	public int parse(byte[] block, int offset, int length, int[] lengths, int[] distances){
+
+		Arrays.fill(head, -1);
+		data = block;
+		end = offset + length;
+		nextInsert = offset;
+
+		int tokens = 0;
+		int pos = offset;
+
+		//Match found at pos when looking ahead (lazy matching)
+		int pendingLength = 0;
+		int pendingDistance = 0;
+
+		while (pos < end){
+
+			int bestLength;
+			int bestDistance;
+
+			if (pendingLength > 0){
+				bestLength = pendingLength;
+				bestDistance = pendingDistance;
+				pendingLength = 0;
+			}else{
+				findMatch(pos, offset);
+				bestLength = matchLength;
+				bestDistance = matchDistance;
+			}
+
+			//Checks if the next position has a longer match, in which case a literal is emitted first
+			if (lazy && bestLength >= MIN_MATCH && bestLength < niceLength && pos + 1 < end){
+
+				findMatch(pos + 1, offset);
+
+				if (matchLength > bestLength){
+					lengths[tokens] = data[pos] & 0xff;
+					distances[tokens++] = 0;
+					pendingLength = matchLength;
+					pendingDistance = matchDistance;
+					pos++;
+					continue;
+				}
+			}
+
+			if (bestLength >= MIN_MATCH){
+				lengths[tokens] = bestLength;
+				distances[tokens++] = bestDistance;
+				pos += bestLength;
+			}else{
+				lengths[tokens] = data[pos] & 0xff;
+				distances[tokens++] = 0;
+				pos++;
+			}
+		}
+
+		data = null;
+		return tokens;
+	}
+
+
+	/**
+	 * Finds the longest match for a position, storing it in <code>matchLength</code>
+	 * and <code>matchDistance</code>
+	 * @param pos The position
+	 * @param offset The start of the block (matches never cross it)
+	 */
+	private void findMatch(int pos, int offset){
+
+		matchLength = 0;
+		matchDistance = 0;
+
+		if (pos + MIN_MATCH > end)
+			return;
+
+		insertUpTo(pos);
+
+		int limit = Math.min(MAX_MATCH, end - pos);
+		int candidate = prev[pos & WINDOW_MASK];
+		int chain = maxChain;
+
+		while (candidate >= offset && pos - candidate < WINDOW_SIZE && chain-- > 0){
+
+			//Checks the byte that would make the match longer first
+			if (matchLength == 0 || data[candidate + matchLength] == data[pos + matchLength]){
+
+				int length = 0;
+				while (length < limit && data[candidate + length] == data[pos + length])
+					length++;
+
+				if (length > matchLength){
+					matchLength = length;
+					matchDistance = pos - candidate;
+
+					if (length >= niceLength || length == limit)
+						break;
+				}
+			}
+
+			int next = prev[candidate & WINDOW_MASK];
+
+			//Entries older than the window may have been overwritten
+			if (next >= candidate)
+				break;
+
+			candidate = next;
+		}
+
+		if (matchLength < MIN_MATCH){
+			matchLength = 0;
+			matchDistance = 0;
+		}
+	}
+
+
+	/**
+	 * Inserts every position up to <code>pos</code> (inclusive) in the hash chains
+	 * @param pos The last position to insert
+	 */
+	private void insertUpTo(int pos){
+
+		while (nextInsert <= pos && nextInsert + MIN_MATCH <= end){
+
+			int hash = (((data[nextInsert] & 0xff) << 10) ^ ((data[nextInsert + 1] & 0xff) << 5)
+					^ (data[nextInsert + 2] & 0xff)) & (HASH_SIZE - 1);
+
+			prev[nextInsert & WINDOW_MASK] = head[hash];
+			head[hash] = nextInsert;
+			nextInsert++;
+		}
+	}
+
+}
@@ -0,0 +1,183 @@
+package huffman;
+import java.util.Arrays;
+
+/**
+ * LONG INT HASH MAP
+ * Maps long keys to int values with open addressing (linear probing) over primitive arrays,
+ * so counting the symbols of a large, sparsely used alphabet (16-bit units, words) allocates
+ * no object per symbol and only grows with the number of distinct keys. Missing keys have
+ * the value 0
+ * @author Andres Beltran
+ * @version 1.0
+ */
+
+public class LongIntHashMap {
+
+	private static final int MIN_CAPACITY = 16;	//Smallest number of slots
+	private long[] keys;						//Stores the key of each slot
+	private int[] values;						//Stores the value of each slot
+	private boolean[] used;						//Stores whether each slot holds a key
+	private int size;							//Stores the number of keys
+	private int mask;							//Stores the number of slots - 1 (a power of two)
+
+
+	/**
+	 * Initializes an empty map
+	 * @param expectedKeys The number of keys expected, so the map does not have to grow
+	 */
+	public LongIntHashMap(int expectedKeys){
+
+		int capacity = MIN_CAPACITY;
+		while (capacity < expectedKeys * 2L && capacity < 1 << 30)
+			capacity <<= 1;
+
+		allocate(capacity);
+	}
+
+
+	/**
+	 * Allocates empty slots
+	 * @param capacity The number of slots (a power of two)
+	 */
+	private void allocate(int capacity){
+		keys = new long[capacity];
+		values = new int[capacity];
+		used = new boolean[capacity];
+		mask = capacity - 1;
+	}
+
+
+	/**
+	 * Returns the slot of a key, or the empty slot where it would be stored
+	 * @param key The key
+	 * @return The index of the slot
+	 */
+	private int find(long key){
+
+		//Mixes the high bits into the low bits used by the mask
+		long hash = key * 0x9E3779B97F4A7C15L;
+		int slot = (int)(hash ^ (hash >>> 32)) & mask;
+
+		while (used[slot] && keys[slot] != key)
+			slot = (slot + 1) & mask;
+
+		return slot;
+	}
+
+
+	/**
+	 * Adds to the value of a key (the key is inserted with 0 if it is missing)
+	 * @param key The key
+	 * @param amount The amount to be added
+	 */
+	public void add(long key, int amount){
+
+		int slot = find(key);
+
+		if (!used[slot]){
+
+			//Keeps at most half of the slots used, so probe sequences stay short
+			if (size + 1 > (mask + 1) >>> 1){
+				grow();
+				slot = find(key);
+			}
+
+			used[slot] = true;
+			keys[slot] = key;
+			size++;
+		}
+
+		values[slot] += amount;
+	}
+
+
+	/**
+	 * Sets the value of a key
+	 * @param key The key
+	 * @param value The value
+	 */
+	public void put(long key, int value){
+
+		int slot = find(key);
+
+		if (!used[slot]){
+			add(key, value);
+			return;
+		}
+
+		values[slot] = value;
+	}
+
+
+	/**
+	 * Returns the value of a key
+	 * @param key The key
+	 * @param missing The value returned if the key is not in the map
+	 * @return The value
+	 */
+	public int get(long key, int missing){
+
+		int slot = find(key);
+		return used[slot] ? values[slot] : missing;
+	}
+
+
+	/**
+	 * Doubles the number of slots and inserts every key again
+	 */
+	private void grow(){
+
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		boolean[] oldUsed = used;
+
+		allocate(keys.length << 1);
+
+		for (int i = 0; i < oldKeys.length; i++){
+			if (oldUsed[i]){
+				int slot = find(oldKeys[i]);
+				used[slot] = true;
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+
+	/**
+	 * Returns the number of keys
+	 * @return The number of keys
+	 */
+	public int size(){
+		return size;
+	}
+
+
+	/**
+	 * Removes every key, keeping the slots
+	 */
+	public void clear(){
+		Arrays.fill(used, false);
+		Arrays.fill(values, 0);
+		size = 0;
+	}
+
+
+	/**
+	 * Copies the keys and values to arrays, in slot order
+	 * @param keysOut Receives the keys (at least <code>size()</code> long)
+	 * @param valuesOut Receives the values (at least <code>size()</code> long)
+	 */
+	public void copyTo(long[] keysOut, int[] valuesOut){
+
+		int count = 0;
+
+		for (int i = 0; i < keys.length; i++){
+			if (used[i]){
+				keysOut[count] = keys[i];
+				valuesOut[count++] = values[i];
+			}
+		}
+	}
+
+}
@@ -0,0 +1,396 @@
+package huffman;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * PARALLEL HUFFMAN DECODER
+ * Decodes the codes of a file in the original format (a single stream with no block index)
+ * with several threads, by speculation. The stream is read in rounds of several chunks of
+ * <code>chunkSize</code> bytes; every chunk is decoded at the same time from its first bit,
+ * although that bit is usually in the middle of a code. Huffman codes resynchronize: a decode
+ * that starts at the wrong bit soon ends a code exactly where the true decode does, and from
+ * then on both decode the same symbols.
+ * <P>
+ * Each chunk records where its first SYNC_WINDOW codes start. The chunks are then joined in
+ * order: the true decode reaches the start of the next chunk at a known position, and is
+ * continued one symbol at a time until it lands on one of the positions recorded by that chunk.
+ * The symbols of the chunk from that code on are kept, and the ones before are replaced by the
+ * symbols of the true decode. A chunk that never lands on the true decode in its window (or
+ * stopped on a wrong Pseudo-EOF-character or an invalid code before it) is decoded again from
+ * the true position, so the output is always the same as serial decoding, errors included.
+ * <P>
+ * Short codes can decode into many more bytes than they take, so a chunk stops speculating when
+ * its output reaches MAX_EXPANSION times its size; the rest of its range is decoded when it is
+ * joined, and written out as it goes, so memory stays bounded whatever the file
+ * @author Andres Beltran
+ * @version 1.0
+ */
+
+public class ParallelHuffmanDecoder {
+
+	private static int EOF_SYMBOL = 256;		//Pseudo-EOF-character
+	private static int SYNC_WINDOW = 1 << 12;	//Code positions recorded at the start of each chunk
+	private static int CHUNKS_PER_THREAD = 4;	//Chunks decoded by each thread in a round
+	private static int TAIL = 64;				//Bytes read after a round, so its last code can finish (up to 256 bits)
+	private static int MAX_EXPANSION = 4;		//Most bytes a chunk decodes (and the joiner holds) per byte of codes
+
+	private static int END = 0;					//The decode passed the end of its chunk
+	private static int FOUND_EOF = 1;			//The decode read the Pseudo-EOF-character
+	private static int FAILED = 2;				//The decode read an invalid code or ran out of data
+	private static int FULL = 3;				//The decode reached the output limit of its chunk
+
+	private HuffmanTable table;					//Decodes the codes
+	private byte[][] characterBytes;			//Stores the bytes written for each character
+	private int threads;						//Stores the number of chunks decoded at the same time
+	private int chunkSize;						//Stores the number of bytes of codes per chunk
+	private int maxOutput;						//Stores the most bytes a chunk may decode
+	private byte[] window = new byte[0];		//Stores the bytes of the current round
+
+
+	/**
+	 * Initializes the decoder
+	 * @param table The table of the file's Huffman tree (with its lookup tables built)
+	 * @param characterBytes The bytes written for each character
+	 * @param threads The number of chunks decoded at the same time
+	 * @param chunkSize The number of bytes of codes per chunk
+	 */
+	public ParallelHuffmanDecoder(HuffmanTable table, byte[][] characterBytes, int threads, int chunkSize){
+		this.table = table;
+		this.characterBytes = characterBytes;
+		this.threads = threads;
+		this.chunkSize = chunkSize;
+		maxOutput = (int) Math.min((long) MAX_EXPANSION * chunkSize, Integer.MAX_VALUE - 8);
+	}
+
+
+	/**
+	 * Decodes every code from a position of the file up to the Pseudo-EOF-character
+	 * @param input The compressed file
+	 * @param start The position of the first code (bits from the start of the file)
+	 * @param output The decoded file (null to decode without writing)
+	 * @throws IOException If there is an error with a file, or the file is corrupted
+	 */
+	public void decode(FileChannel input, long start, FileChannel output) throws IOException{
+
+		ExecutorService decoders = Executors.newFixedThreadPool(threads);
+		long fileSize = input.size();
+		long position = start;
+
+		try {
+
+			//Each round starts at a true position: where the last code of the previous one ended
+			while (true){
+
+				long first = position >>> 3;
+
+				if (first >= fileSize)
+					throw new IOException("Unexpected end of file");
+
+				long roundSize = Math.min((long) threads * CHUNKS_PER_THREAD * chunkSize, fileSize - first);
+				int length = (int) Math.min(fileSize - first, roundSize + TAIL);
+				load(input, first, length);
+
+				long roundBits = 8 * roundSize;
+				long offset = position & 7;
+				ArrayList<Future<Chunk>> results = new ArrayList<>();
+
+				for (long chunkStart = offset; chunkStart < roundBits; chunkStart += 8L * chunkSize){
+					final Chunk chunk = new Chunk(chunkStart, Math.min(roundBits, chunkStart + 8L * chunkSize), length);
+					results.add(decoders.submit(new Callable<Chunk>(){
+						public Chunk call() throws IOException{
+							chunk.decode(SYNC_WINDOW);
+							return chunk;
+						}
+					}));
+				}
+
+				long end = join(results, offset, length, output);
+
+				if (end < 0)
+					return;
+
+				position = 8 * first + end;
+			}
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Decoding interrupted");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException("Decoding error", e.getCause());
+		} finally {
+			decoders.shutdownNow();
+		}
+	}
+
+
+	/**
+	 * Reads the bytes of a round into the window
+	 * @param input The compressed file
+	 * @param first The position of the first byte
+	 * @param length The number of bytes
+	 * @throws IOException If there is an error reading the file
+	 */
+	private void load(FileChannel input, long first, int length) throws IOException{
+
+		if (window.length < length)
+			window = new byte[length];
+
+		ByteBuffer buffer = ByteBuffer.wrap(window, 0, length);
+
+		while (buffer.hasRemaining()){
+			if (input.read(buffer, first + buffer.position()) < 0)
+				throw new EOFException();
+		}
+	}
+
+
+	/**
+	 * Joins the chunks of a round in order and writes their symbols
+	 * @param results The chunks, being decoded
+	 * @param position The true position of the first code of the round (bits in the window)
+	 * @param length The number of bytes in the window
+	 * @param output The decoded file (null to decode without writing)
+	 * @return The true position after the round (bits in the window), or -1 after the Pseudo-EOF-character
+	 * @throws IOException If there is an error writing or the file is corrupted
+	 * @throws InterruptedException If the thread is interrupted
+	 * @throws ExecutionException If a chunk could not be decoded
+	 */
+	private long join(ArrayList<Future<Chunk>> results, long position, int length, FileChannel output)
+			throws IOException, InterruptedException, ExecutionException{
+
+		Chunk prefix = new Chunk(0, 0, length);
+		prefix.limit = Integer.MAX_VALUE;
+
+		for (Future<Chunk> result : results){
+
+			Chunk chunk = result.get();
+			int synced = 0;
+
+			//The first chunk starts at the true position; the others are speculative
+			if (chunk.start != position){
+
+				synced = -1;
+				prefix.reset(position);
+
+				//Decodes true symbols until one ends where a code of the chunk starts
+				for (int i = 0; i < chunk.recorded && synced < 0;){
+
+					if (chunk.codeStarts[i] < prefix.position)
+						i++;
+					else if (chunk.codeStarts[i] == prefix.position)
+						synced = i;
+					else if (!prefix.decodeSymbol())
+						break;
+				}
+
+				//No common code in the window: the true decode goes on to the end of the chunk
+				if (synced < 0)
+					finish(prefix, chunk.end, output);
+
+				write(output, prefix.output, 0, prefix.count);
+			}
+
+			if (synced < 0){
+				chunk = prefix;
+			}else{
+				int skipped = chunk.outputStarts[synced];
+				write(output, chunk.output, skipped, chunk.count - skipped);
+
+				//The chunk stopped at its output limit: the rest of it is decoded here
+				if (chunk.status == FULL){
+					prefix.reset(chunk.position);
+					finish(prefix, chunk.end, output);
+					write(output, prefix.output, 0, prefix.count);
+					chunk = prefix;
+				}
+			}
+
+			if (chunk.status == FAILED)
+				throw chunk.error;
+
+			if (chunk.status == FOUND_EOF)
+				return -1;
+
+			position = chunk.position;
+		}
+
+		return position;
+	}
+
+
+	/**
+	 * Continues the true decode up to the end of a chunk, writing its bytes whenever they
+	 * reach the output limit of a chunk
+	 * @param decode The true decode
+	 * @param end The end of the chunk (bits in the window)
+	 * @param output The decoded file (null to decode without writing)
+	 * @throws IOException If there is an error writing
+	 */
+	private void finish(Chunk decode, long end, FileChannel output) throws IOException{
+
+		while (decode.status == END && decode.position < end){
+
+			decode.decodeSymbol();
+
+			if (decode.count >= maxOutput){
+				write(output, decode.output, 0, decode.count);
+				decode.count = 0;
+			}
+		}
+	}
+
+
+	/**
+	 * Writes decoded bytes
+	 * @param output The decoded file (null to skip writing)
+	 * @param bytes The bytes
+	 * @param offset The index of the first byte
+	 * @param count The number of bytes
+	 * @throws IOException If there is an error writing
+	 */
+	private static void write(FileChannel output, byte[] bytes, int offset, int count) throws IOException{
+
+		if (output == null)
+			return;
+
+		ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, count);
+		while (buffer.hasRemaining())
+			output.write(buffer);
+	}
+
+
+	/**
+	 * Decodes the codes that start in a range of the window
+	 */
+	private class Chunk {
+
+		private long start;						//Position where decoding starts (bits in the window)
+		private long base;						//Position of the first bit of the byte where decoding starts
+		private long end;						//Decoding stops at the first code that starts at or after this position
+		private int length;						//Number of bytes in the window
+		private long position;					//Position after the last code decoded
+		private int status = END;				//Why decoding stopped
+		private IOException error;				//Error that stopped decoding (FAILED only)
+		private BitReader reader = new BitReader();	//Reads the window
+		private byte[] output = new byte[1 << 16];	//Stores the decoded bytes
+		private int count;						//Number of decoded bytes
+		private int limit = maxOutput;			//Decoding stops before the output exceeds this
+		private long[] codeStarts;				//Position of each of the first codes
+		private int[] outputStarts;				//Number of decoded bytes before each of the first codes
+		private int recorded;					//Number of codes whose position was recorded
+
+		Chunk(long start, long end, int length){
+			this.start = start;
+			this.end = end;
+			this.length = length;
+		}
+
+		/**
+		 * Moves to a position and forgets what was decoded
+		 * @param start The position of the next code
+		 */
+		void reset(long start){
+
+			this.start = start;
+			base = start & ~7L;
+			position = start;
+			status = END;
+			count = 0;
+			reader.reset(window, (int)(start >>> 3), length - (int)(start >>> 3));
+
+			try {
+				if ((start & 7) != 0)
+					reader.read((int)(start & 7));
+			} catch (IOException e) {
+				//Arrays are never read from a stream
+			}
+		}
+
+		/**
+		 * Decodes from the start up to the end of the chunk, the Pseudo-EOF-character or an error
+		 * @param positions The number of code positions to record
+		 */
+		void decode(int positions){
+
+			reset(start);
+			codeStarts = new long[positions];
+			outputStarts = new int[positions];
+			recorded = 0;
+
+			while (position < end){
+
+				if (recorded < positions){
+					codeStarts[recorded] = position;
+					outputStarts[recorded++] = count;
+				}
+
+				if (!decodeSymbol())
+					return;
+			}
+		}
+
+		/**
+		 * Decodes one symbol and appends its bytes
+		 * @return False if decoding stopped (Pseudo-EOF-character or error)
+		 */
+		boolean decodeSymbol(){
+
+			int symbol;
+			long previous = position;
+
+			try {
+				symbol = table.readSymbol(reader);
+			} catch (IOException e) {
+				status = FAILED;
+				error = e;
+				return false;
+			}
+
+			position = base + reader.getPosition();
+
+			if (reader.isOverrun()){
+				status = FAILED;
+				error = new IOException("Unexpected end of file");
+				return false;
+			}
+
+			if (symbol == EOF_SYMBOL){
+				status = FOUND_EOF;
+				return false;
+			}
+
+			byte[] bytes = characterBytes[symbol];
+
+			//The code is decoded again when the chunk is joined
+			if (count + bytes.length > limit){
+				position = previous;
+				status = FULL;
+				return false;
+			}
+
+			if (count + bytes.length > output.length)
+				output = Arrays.copyOf(output, (int) Math.min(Math.max(output.length * 2L, count + bytes.length), Integer.MAX_VALUE - 8));
+
+			if (bytes.length == 1){
+				output[count++] = bytes[0];
+			}else{
+				System.arraycopy(bytes, 0, output, count, bytes.length);
+				count += bytes.length;
+			}
+
+			return true;
+		}
+	}
+
+}
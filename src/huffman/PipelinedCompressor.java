@@ -0,0 +1,586 @@
+package huffman;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32C;
+
+/**
+ * PIPELINED COMPRESSOR
+ * Writes the same container as <code>BlockCompressor</code>, but overlaps the three stages:
+ * a reader thread fills block buffers from the input channel, a pool of encoders compresses
+ * them, and the calling thread writes the encoded blocks in order, several at a time with
+ * gathering writes. The stages are connected by bounded queues, so at most <code>threads * 2</code> blocks are
+ * in memory at any time. With <code>CompressionConfig.MAPPED_IO</code> the reader copies the
+ * blocks out of memory-mapped regions of the input instead of reading them from the channel.
+ * <P>
+ * Each encoder writes its block with the block's own tables. Whether a block reuses the tables
+ * of the previous one is decided by the writer, which sees the blocks in input order, so the
+ * output is the same with any number of threads
+ * @author Andres Beltran
+ * @version 1.0
+ */
+
+public class PipelinedCompressor {
+
+	private static final int MAX_GATHER = 16;	//Maximum number of blocks written with a single call
+	private static long MAP_WINDOW = 1L << 30;	//Maximum size of each mapped region of the input
+
+	//Marks the end of the input in the queue of encoded blocks
+	private static Future<BlockCompressor.EncodedBlock> END_OF_INPUT = new FutureTask<>(new Callable<BlockCompressor.EncodedBlock>(){
+		public BlockCompressor.EncodedBlock call(){
+			return null;
+		}
+	});
+
+	private CompressionConfig config;		//Stores the level, block size, table strategy, threads and I/O mode
+	private MappedByteBuffer mapped;		//Stores the region of the input being read (MAPPED_IO)
+	private long mappedStart;				//Stores the position of the mapped region in the input
+	private BlockingQueue<byte[]> freeBuffers;			//Block buffers ready to be filled by the reader
+	private BlockingQueue<Encoder> idleEncoders;		//Encoders not being used by any task
+	private BlockingQueue<Future<BlockCompressor.EncodedBlock>> pending;	//Encoded blocks, in input order
+	private volatile IOException readError;	//Stores the error found by the reader thread
+	private long originalFileSize;			//Stores the size of the original file (bits)
+	private long compressedFileSize;		//Stores the size of the compressed file (bits)
+
+
+	/**
+	 * Initializes the compressor
+	 * @param level The compression level (1 fastest - 9 best ratio)
+	 * @param threads The number of blocks encoded at the same time
+	 */
+	public PipelinedCompressor(int level, int threads){
+
+		config = CompressionConfig.forLevel(level);
+		config.setThreads(threads);
+	}
+
+
+	/**
+	 * Initializes the compressor with the given parameters (the configuration is copied, so
+	 * later changes to it have no effect)
+	 * @param config The compression parameters
+	 */
+	public PipelinedCompressor(CompressionConfig config){
+		this.config = config.copy();
+	}
+
+
+	/**
+	 * Chooses between single-stream and interleaved blocks (see <code>BlockCompressor</code>)
+	 * @param interleaved True to write interleaved blocks
+	 */
+	public void setInterleaved(boolean interleaved){
+		config.setInterleaved(interleaved);
+	}
+
+
+	/**
+	 * Writes blocks whose symbol streams use a pluggable entropy coder (see <code>BlockCompressor</code>)
+	 * @param coder The coder ID, or <code>LZBlockCodec.BEST_CODER</code>
+	 */
+	public void setEntropyCoder(int coder){
+		config.setEntropyCoder(coder);
+	}
+
+
+	/**
+	 * Compresses a file
+	 * @param inputFile The name of the file to be compressed
+	 * @param outputFile The name of the compressed file
+	 * @throws IOException If there is an error with any file
+	 */
+	public void compress(String inputFile, String outputFile) throws IOException{
+
+		FileChannel input = FileChannel.open(Paths.get(inputFile), StandardOpenOption.READ);
+
+		try (FileChannel output = FileChannel.open(Paths.get(outputFile), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+
+			ByteArrayOutputStream header = new ByteArrayOutputStream();
+			BlockCompressor headerWriter = new BlockCompressor(header, config);
+			headerWriter.writeHeader();
+			write(output, header);
+
+			run(input, output, headerWriter, header, config, false);
+
+		} finally {
+			input.close();
+		}
+	}
+
+
+	/**
+	 * Compresses the bytes added to a file since it was last compressed, and appends them as new
+	 * blocks to the compressed file. The new blocks go after the current end block and are forced
+	 * to disk before the new index and end block are written, so the file always holds a complete
+	 * container: readers (and the next append) find the last end block and ignore anything after
+	 * it, and the blocks of an interrupted append are dropped by the next one. The old index and
+	 * end block stay in the file, and decoders skip them.
+	 * The new blocks use the level, block size, code length and table reuse recorded in the
+	 * compressed file, so its header stays true. The input must only have grown: every compressed
+	 * block is checked against the same bytes of the input before anything is written
+	 * @param inputFile The name of the file to be compressed
+	 * @param outputFile The name of the compressed file (created if it does not exist)
+	 * @throws IOException If there is an error with any file, or the compressed file does not
+	 * belong to the input
+	 */
+	public void append(String inputFile, String outputFile) throws IOException{
+
+		if (!Files.exists(Paths.get(outputFile)) || Files.size(Paths.get(outputFile)) == 0){
+			compress(inputFile, outputFile);
+			return;
+		}
+
+		FileChannel input = FileChannel.open(Paths.get(inputFile), StandardOpenOption.READ);
+
+		try (FileChannel output = FileChannel.open(Paths.get(outputFile), StandardOpenOption.READ,
+				StandardOpenOption.WRITE)){
+
+			long end = BlockDecompressor.findEnd(output);
+			BlockIndex index = end < 0 ? null : BlockDecompressor.readIndex(output, end);
+
+			if (index == null)
+				index = BlockDecompressor.rebuildIndex(outputFile);
+			else
+				index.setEnd(end);
+
+			if (input.size() < index.getOriginalSize())
+				throw new IOException("The input is shorter than the compressed data");
+
+			if (!matchesBlocks(input, output, index))
+				throw new IOException("The input does not start with the compressed data");
+
+			//Only the blocks of an interrupted append come after the end
+			input.position(index.getOriginalSize());
+			output.truncate(index.getEnd());
+			output.position(index.getEnd());
+
+			CompressionConfig recorded = readConfig(outputFile);
+			ByteArrayOutputStream header = new ByteArrayOutputStream();
+			BlockCompressor headerWriter = new BlockCompressor(header, recorded);
+			headerWriter.resume(index);
+
+			run(input, output, headerWriter, header, recorded, true);
+
+		} finally {
+			input.close();
+		}
+	}
+
+
+	/**
+	 * Compares the checksum of every block of a compressed file with the checksum of the input
+	 * bytes it should contain
+	 * @param input The file being compressed
+	 * @param output The compressed file
+	 * @param index The index of the compressed file
+	 * @return True if the input bytes match every block
+	 * @throws IOException If there is an error reading any file
+	 */
+	private static boolean matchesBlocks(FileChannel input, FileChannel output, BlockIndex index) throws IOException{
+
+		int largest = 0;
+		for (int i = 0; i < index.getCount(); i++)
+			largest = Math.max(largest, index.getLength(i));
+
+		ByteBuffer header = ByteBuffer.allocate(BlockFormat.BLOCK_HEADER_SIZE);
+		ByteBuffer data = ByteBuffer.allocate(largest);
+		CRC32C checksum = new CRC32C();
+		long start = 0;
+
+		for (int i = 0; i < index.getCount(); i++){
+
+			header.clear();
+			data.clear().limit(index.getLength(i));
+			readFully(output, header, index.getOffset(i));
+			readFully(input, data, start);
+			start += data.limit();
+
+			checksum.reset();
+			checksum.update(data.array(), 0, data.limit());
+
+			if (header.getInt(1) != index.getLength(i) || (int) checksum.getValue() != header.getInt(9))
+				return false;
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * Reads bytes at a given position until the buffer is full
+	 * @param file The file
+	 * @param buffer The buffer to fill
+	 * @param position The position of the first byte
+	 * @throws IOException If the file ends before the buffer is full
+	 */
+	private static void readFully(FileChannel file, ByteBuffer buffer, long position) throws IOException{
+
+		while (buffer.hasRemaining()){
+
+			if (file.read(buffer, position + buffer.position()) == -1)
+				throw new EOFException("Unexpected end of file");
+		}
+	}
+
+
+	/**
+	 * Returns the parameters recorded in a compressed file, with the threads, I/O mode,
+	 * block layout and symbol model of this compressor
+	 * @param outputFile The name of the compressed file
+	 * @return The configuration for the new blocks
+	 * @throws IOException If the file cannot be read
+	 */
+	private CompressionConfig readConfig(String outputFile) throws IOException{
+
+		try (InputStream in = new FileInputStream(outputFile)){
+
+			BlockDecompressor decompressor = new BlockDecompressor(in);
+
+			if (!decompressor.readHeader())
+				throw new IOException("The file cannot be appended to");
+
+			CompressionConfig recorded = decompressor.getConfig();
+			recorded.setThreads(config.getThreads());
+			recorded.setIoMode(config.getIoMode());
+			recorded.setInterleaved(config.isInterleaved());
+			recorded.setSymbols(config.getSymbols());
+			if (config.isCoded())
+				recorded.setEntropyCoder(config.getEntropyCoder());
+
+			return recorded;
+		}
+	}
+
+
+	/**
+	 * Runs the reader, the encoders and the writer until the whole input has been written
+	 * @param input The file being compressed, at the position of the first byte to compress
+	 * @param output The compressed file, at the position of the first block
+	 * @param headerWriter Writes the index and the end block
+	 * @param header Receives the bytes written by <code>headerWriter</code>
+	 * @param config The parameters of the blocks
+	 * @param durable True to force the blocks to disk before the index, and the index after them
+	 * @throws IOException If there is an error with any file
+	 */
+	private void run(FileChannel input, FileChannel output, BlockCompressor headerWriter,
+			ByteArrayOutputStream header, CompressionConfig config, boolean durable) throws IOException{
+
+		int threads = config.getThreads();
+		int inFlight = threads * 2;
+		freeBuffers = new ArrayBlockingQueue<>(inFlight);
+		idleEncoders = new ArrayBlockingQueue<>(threads);
+		pending = new ArrayBlockingQueue<>(inFlight);
+		readError = null;
+		mapped = null;
+
+		for (int i = 0; i < inFlight; i++)
+			freeBuffers.add(BufferPool.take(config.getBlockSize()));
+
+		for (int i = 0; i < threads; i++)
+			idleEncoders.add(new Encoder(config));
+
+		ExecutorService encoders = Executors.newFixedThreadPool(threads);
+		Thread reader = null;
+
+		try {
+
+			reader = startReader(input, encoders, config.getIoMode() == CompressionConfig.MAPPED_IO);
+			writeBlocks(output, headerWriter);
+
+			if (durable)
+				output.force(false);
+
+			headerWriter.writeEnd();
+			write(output, header);
+
+			if (durable)
+				output.force(false);
+
+		} finally {
+			if (reader != null)
+				reader.interrupt();
+			encoders.shutdownNow();
+
+			//Buffers still held by an interrupted stage are left to the garbage collector
+			ArrayList<byte[]> unused = new ArrayList<>();
+			freeBuffers.drainTo(unused);
+			for (byte[] buffer : unused)
+				BufferPool.give(buffer);
+		}
+	}
+
+
+	/**
+	 * Starts the thread that reads the input and submits each block to the encoders
+	 * @param input The file being compressed
+	 * @param encoders The pool of encoder threads
+	 * @param map True to read the input through memory-mapped regions
+	 * @return The reader thread
+	 */
+	private Thread startReader(final FileChannel input, final ExecutorService encoders, final boolean map){
+
+		Thread reader = new Thread(new Runnable(){
+			public void run(){
+				try {
+
+					while (true){
+
+						final byte[] buffer = freeBuffers.take();
+						final int length = map ? fillMappedBlock(input, buffer) : fillBlock(input, buffer);
+
+						if (length == 0)
+							break;
+
+						originalFileSize += 8L * length;
+						pending.put(encoders.submit(new Callable<BlockCompressor.EncodedBlock>(){
+							public BlockCompressor.EncodedBlock call() throws Exception{
+								return encode(buffer, length);
+							}
+						}));
+					}
+
+				} catch (IOException e) {
+					readError = e;
+				} catch (InterruptedException e) {
+					return;
+				}
+
+				try {
+					pending.put(END_OF_INPUT);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}, "huffman-reader");
+
+		reader.setDaemon(true);
+		reader.start();
+		return reader;
+	}
+
+
+	/**
+	 * Reads the next block from the input
+	 * @param input The file being compressed
+	 * @param buffer The buffer to fill
+	 * @return The number of bytes read (0 at the end of the file)
+	 * @throws IOException If there is an error reading the file
+	 */
+	private static int fillBlock(FileChannel input, byte[] buffer) throws IOException{
+
+		ByteBuffer target = ByteBuffer.wrap(buffer);
+
+		while (target.hasRemaining() && input.read(target) != -1);
+
+		return target.position();
+	}
+
+
+	/**
+	 * Copies the next block out of a mapped region of the input, mapping the next region
+	 * when the block goes past the current one
+	 * @param input The file being compressed
+	 * @param buffer The buffer to fill
+	 * @return The number of bytes copied (0 at the end of the file)
+	 * @throws IOException If there is an error mapping the file
+	 */
+	private int fillMappedBlock(FileChannel input, byte[] buffer) throws IOException{
+
+		long position = input.position();
+		int length = (int) Math.min(buffer.length, input.size() - position);
+
+		if (length <= 0)
+			return 0;
+
+		if (mapped == null || position < mappedStart || position + length > mappedStart + mapped.capacity()){
+			mappedStart = position;
+			mapped = input.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_WINDOW, input.size() - position));
+		}
+
+		mapped.position((int)(position - mappedStart));
+		mapped.get(buffer, 0, length);
+		input.position(position + length);
+		return length;
+	}
+
+
+	/**
+	 * Encodes a block with an idle encoder and recycles the input buffer
+	 * @param buffer The block
+	 * @param length The number of bytes in the block
+	 * @return The encoded block, ready to be written
+	 * @throws Exception If the block cannot be encoded
+	 */
+	private BlockCompressor.EncodedBlock encode(byte[] buffer, int length) throws Exception{
+
+		Encoder encoder = idleEncoders.take();
+
+		try {
+			return encoder.encode(buffer, length);
+		} finally {
+			idleEncoders.put(encoder);
+			freeBuffers.put(buffer);
+		}
+	}
+
+
+	/**
+	 * Writes the encoded blocks (in input order) with gathering writes and adds them to the index
+	 * @param output The compressed file
+	 * @param headerWriter Decides which blocks reuse the previous tables and keeps the index
+	 * @throws IOException If there is an error with any file
+	 */
+	private void writeBlocks(FileChannel output, BlockCompressor headerWriter) throws IOException{
+
+		ArrayList<ByteBuffer> ready = new ArrayList<>();
+		boolean done = false;
+
+		while (!done){
+
+			//Waits for the next block, and then takes every block that is already encoded
+			Future<BlockCompressor.EncodedBlock> next = take();
+
+			while (true){
+
+				if (next == END_OF_INPUT){
+					done = true;
+					break;
+				}
+
+				for (ByteBuffer buffer : headerWriter.frameBlock(get(next)))
+					ready.add(buffer);
+
+				if (ready.size() >= 2 * MAX_GATHER || pending.peek() == null || !pending.peek().isDone())
+					break;
+
+				next = take();
+			}
+
+			write(output, ready.toArray(new ByteBuffer[ready.size()]));
+			ready.clear();
+		}
+
+		if (readError != null)
+			throw readError;
+	}
+
+
+	/**
+	 * Takes the next encoded block from the queue
+	 * @return The future of the encoded block
+	 * @throws IOException If the thread is interrupted
+	 */
+	private Future<BlockCompressor.EncodedBlock> take() throws IOException{
+
+		try {
+			return pending.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Compression interrupted");
+		}
+	}
+
+
+	/**
+	 * Waits for a block to be encoded
+	 * @param block The future of the encoded block
+	 * @return The encoded block
+	 * @throws IOException If the block could not be encoded
+	 */
+	private static BlockCompressor.EncodedBlock get(Future<BlockCompressor.EncodedBlock> block) throws IOException{
+
+		try {
+			return block.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Compression interrupted");
+		} catch (ExecutionException e) {
+			throw new IOException("Encoding error", e.getCause());
+		}
+	}
+
+
+	/**
+	 * Writes the bytes collected in a stream to the file, and empties the stream
+	 * @param output The compressed file
+	 * @param data The data to be written
+	 * @throws IOException If there is an error writing the file
+	 */
+	private void write(FileChannel output, ByteArrayOutputStream data) throws IOException{
+		write(output, new ByteBuffer[] {ByteBuffer.wrap(data.toByteArray())});
+		data.reset();
+	}
+
+
+	/**
+	 * Writes every buffer with gathering writes
+	 * @param output The compressed file
+	 * @param buffers The data to be written
+	 * @throws IOException If there is an error writing the file
+	 */
+	private void write(FileChannel output, ByteBuffer[] buffers) throws IOException{
+
+		long remaining = 0;
+		for (ByteBuffer buffer : buffers)
+			remaining += buffer.remaining();
+
+		compressedFileSize += 8 * remaining;
+
+		while (remaining > 0)
+			remaining -= output.write(buffers);
+	}
+
+
+	/**
+	 * Returns the size of the original file
+	 * @return The size of the original file (bits)
+	 */
+	public long getOriginalFileSize(){
+		return originalFileSize;
+	}
+
+
+	/**
+	 * Returns the size of the compressed file
+	 * @return The size of the compressed file (bits)
+	 */
+	public long getCompressedFileSize(){
+		return compressedFileSize;
+	}
+
+
+	/**
+	 * Encodes blocks with its own compressor (one per encoder thread)
+	 */
+	private class Encoder {
+
+		private BlockCompressor compressor;
+
+		Encoder(CompressionConfig config){
+			compressor = new BlockCompressor(new ByteArrayOutputStream(), config);
+		}
+
+		BlockCompressor.EncodedBlock encode(byte[] buffer, int length) throws IOException{
+			return compressor.encodeBlock(buffer, 0, length);
+		}
+	}
+
+}
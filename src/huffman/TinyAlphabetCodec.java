@@ -0,0 +1,177 @@
+package huffman;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * TINY ALPHABET CODEC
+ * Encodes blocks that use very few distinct bytes without matching or coding them: a block
+ * with a single byte value is stored as that value only (the block header already holds its
+ * length), and a block with 2 - 4 values is stored as the values followed by a fixed-width
+ * index (1 or 2 bits) for every byte. Both are expanded with bulk fills and table lookups
+ * @author Andres Beltran
+ * @version 1.0
+ */
+
+public class TinyAlphabetCodec {
+
+	public static final int MAX_SYMBOLS = 4;		//Largest alphabet that can be packed
+
+
+	private TinyAlphabetCodec(){
+	}
+
+
+	/**
+	 * Returns the number of bits used for each byte of a packed block
+	 * @param symbols The number of distinct bytes (2 - 4)
+	 * @return 1 or 2
+	 */
+	public static int getWidth(int symbols){
+		return symbols <= 2 ? 1 : 2;
+	}
+
+
+	/**
+	 * Returns the size of a packed block
+	 * @param symbols The number of distinct bytes (2 - 4)
+	 * @param length The number of bytes in the block
+	 * @return The size of the payload (bytes)
+	 */
+	public static long getPackedSize(int symbols, int length){
+		return 1 + symbols + ((long) length * getWidth(symbols) + 7) / 8;
+	}
+
+
+	/**
+	 * Writes a block with a single byte value
+	 * @param payload Receives the encoded block
+	 * @param value The byte value of the block
+	 */
+	public static void encodeRun(ByteArrayOutputStream payload, int value){
+		payload.write(value);
+	}
+
+
+	/**
+	 * Writes a block with 2 - 4 byte values as the values followed by a fixed-width index for
+	 * every byte (most significant bits first)
+	 * @param payload Receives the encoded block
+	 * @param data The data to be compressed
+	 * @param offset The index of the first byte
+	 * @param length The number of bytes in the block
+	 * @param histogram The frequency of each byte value in the block
+	 */
+	public static void encodePacked(ByteArrayOutputStream payload, byte[] data, int offset, int length, int[] histogram){
+
+		int[] indexes = new int[256];
+		int symbols = 0;
+
+		for (int value = 0; value < 256; value++){
+			if (histogram[value] > 0)
+				indexes[value] = symbols++;
+		}
+
+		payload.write(symbols);
+		for (int value = 0; value < 256; value++){
+			if (histogram[value] > 0)
+				payload.write(value);
+		}
+
+		int width = getWidth(symbols);
+		int perByte = 8 / width;
+		byte[] packed = new byte[(int) (((long) length * width + 7) / 8)];
+		int end = offset + length;
+		int i = offset;
+		int position = 0;
+
+		//Whole bytes first, then the last partial byte padded with zeros
+		for (; i + perByte <= end; i += perByte){
+			int value = 0;
+			for (int j = 0; j < perByte; j++)
+				value = value << width | indexes[data[i + j] & 0xff];
+			packed[position++] = (byte) value;
+		}
+
+		if (i < end){
+			int value = 0;
+			int count = end - i;
+			for (int j = 0; j < count; j++)
+				value = value << width | indexes[data[i + j] & 0xff];
+			packed[position] = (byte) (value << (width * (perByte - count)));
+		}
+
+		payload.write(packed, 0, packed.length);
+	}
+
+
+	/**
+	 * Expands a block with a single byte value
+	 * @param payload The encoded block
+	 * @param payloadLength The size of the payload
+	 * @param output Receives the decoded bytes
+	 * @param offset The index of the first byte to write
+	 * @param length The number of bytes of the original block
+	 * @param checksum Receives the decoded bytes while they are in cache
+	 * @throws IOException If the block is corrupted
+	 */
+	public static void decodeRun(byte[] payload, int payloadLength, byte[] output, int offset, int length,
+			BlockChecksum checksum) throws IOException{
+
+		if (payloadLength != 1)
+			throw new IOException("Invalid run block");
+
+		int end = offset + length;
+
+		for (int pos = offset; pos < end; pos += BlockChecksum.CHUNK){
+			int chunkEnd = Math.min(end, pos + BlockChecksum.CHUNK);
+			Arrays.fill(output, pos, chunkEnd, payload[0]);
+			checksum.update(chunkEnd);
+		}
+	}
+
+
+	/**
+	 * Expands a packed block, one payload byte (8 or 4 output bytes) at a time
+	 * @param payload The encoded block
+	 * @param payloadLength The size of the payload
+	 * @param output Receives the decoded bytes
+	 * @param offset The index of the first byte to write
+	 * @param length The number of bytes of the original block
+	 * @param checksum Receives the decoded bytes while they are in cache
+	 * @throws IOException If the block is corrupted
+	 */
+	public static void decodePacked(byte[] payload, int payloadLength, byte[] output, int offset, int length,
+			BlockChecksum checksum) throws IOException{
+
+		int symbols = payloadLength > 0 ? payload[0] & 0xff : 0;
+
+		if (symbols < 2 || symbols > MAX_SYMBOLS || payloadLength != getPackedSize(symbols, length))
+			throw new IOException("Invalid packed block");
+
+		int width = getWidth(symbols);
+		int perByte = 8 / width;
+
+		//Bytes produced by each possible payload byte
+		byte[] expanded = new byte[256 * perByte];
+		for (int value = 0; value < 256; value++){
+			for (int j = 0; j < perByte; j++){
+				int index = value >>> (8 - width * (j + 1)) & ((1 << width) - 1);
+				expanded[value * perByte + j] = index < symbols ? payload[1 + index] : 0;
+			}
+		}
+
+		int pos = offset;
+		int end = offset + length;
+		int source = 1 + symbols;
+
+		for (; pos + perByte <= end; pos += perByte){
+			System.arraycopy(expanded, (payload[source++] & 0xff) * perByte, output, pos, perByte);
+			checksum.update(pos);
+		}
+
+		if (pos < end)
+			System.arraycopy(expanded, (payload[source] & 0xff) * perByte, output, pos, end - pos);
+	}
+
+}
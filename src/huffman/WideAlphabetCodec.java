@@ -0,0 +1,319 @@
+package huffman;
+import java.io.IOException;
+import java.util.Arrays;
+
+import huffman.ThirdPartyClasses.BitOutputStream;
+
+/**
+ * WIDE ALPHABET CODEC
+ * Codes blocks with Huffman tables over alphabets wider than a byte, without matching:
+ * <P>
+ * Unit blocks split the data into 16-bit units (UTF-16 text, PCM samples, numeric sensor
+ * dumps), so each code stands for two bytes and captures how the bytes of a value go together.
+ * The payload is the table of the units, their codes and, for odd lengths, the last byte.
+ * <P>
+ * Word blocks replace the most frequent words (runs of letters and digits, with the space
+ * before them, up to MAX_WORD_LENGTH bytes) with symbols above 255. The payload is the
+ * dictionary (number of words, then the length and bytes of each one), the table of the 256
+ * byte values and the words, and the codes.
+ * <P>
+ * Both alphabets are used sparsely, so symbols are counted with <code>LongIntHashMap</code>
+ * and only the used ones are given to <code>HuffmanTable</code>
+ * @author Andres Beltran
+ * @version 1.0
+ */
+
+public class WideAlphabetCodec {
+
+	public static final int UNIT_SYMBOLS = 1 << 16;		//Alphabet of unit blocks
+	public static final int MAX_WORD_LENGTH = 8;		//Longest word (its bytes are packed into a long key)
+	public static final int MAX_WORDS = 4096 - 256;		//Largest dictionary (symbols fit in 12 bits)
+	private static int WORD_COUNT_BITS = 12;			//Bits of the number of words
+	private static int WORD_LENGTH_BITS = 3;			//Bits of each word's length - 1
+	private static int MIN_WORD_COUNT = 3;				//Fewest occurrences of a word in the dictionary
+	private static boolean[] WORD_BYTES = new boolean[256];	//Letters and digits
+
+	static {
+		for (int c = '0'; c <= '9'; c++)
+			WORD_BYTES[c] = true;
+		for (int c = 'a'; c <= 'z'; c++){
+			WORD_BYTES[c] = true;
+			WORD_BYTES[c - 'a' + 'A'] = true;
+		}
+	}
+
+	private int maxCodeLength;					//Longest Huffman code
+	private LongIntHashMap counts = new LongIntHashMap(1 << 12);		//Counts the units or words of a block
+	private LongIntHashMap dictionary = new LongIntHashMap(MAX_WORDS);	//Maps each word to its index
+
+
+	/**
+	 * Initializes the codec
+	 * @param maxCodeLength The longest Huffman code (raised when the used symbols need more bits)
+	 */
+	public WideAlphabetCodec(int maxCodeLength){
+		this.maxCodeLength = maxCodeLength;
+	}
+
+
+	/**
+	 * Encodes a block as 16-bit units (the first byte of each unit is its high byte)
+	 * @param writer The bit stream
+	 * @param data The data to be compressed
+	 * @param offset The index of the first byte
+	 * @param length The number of bytes in the block
+	 */
+	public void encodeUnits(BitOutputStream writer, byte[] data, int offset, int length){
+
+		int end = offset + (length & ~1);
+		counts.clear();
+
+		for (int i = offset; i < end; i += 2)
+			counts.add((data[i] & 0xff) << 8 | (data[i + 1] & 0xff), 1);
+
+		HuffmanTable table = buildTable(UNIT_SYMBOLS);
+		table.writeHeader(writer);
+
+		for (int i = offset; i < end; i += 2)
+			table.writeSymbol(writer, (data[i] & 0xff) << 8 | (data[i + 1] & 0xff));
+
+		if (end < offset + length)
+			writer.write(8, data[end] & 0xff);
+	}
+
+
+	/**
+	 * Builds the table of the symbols in <code>counts</code>
+	 * @param alphabetSize The number of symbols in the alphabet
+	 * @return The table
+	 */
+	private HuffmanTable buildTable(int alphabetSize){
+
+		int used = counts.size();
+		long[] keys = new long[used];
+		int[] frequencies = new int[used];
+		counts.copyTo(keys, frequencies);
+
+		int[] symbols = new int[used];
+		for (int i = 0; i < used; i++)
+			symbols[i] = (int) keys[i];
+
+		return new HuffmanTable(alphabetSize, symbols, frequencies, used, maxCodeLength);
+	}
+
+
+	/**
+	 * Decodes a unit block
+	 * @param reader The bit stream, positioned at the start of the payload
+	 * @param output Receives the decoded bytes
+	 * @param offset The index of the first byte to write
+	 * @param length The number of bytes of the original block
+	 * @param checksum Receives the decoded bytes while they are in cache
+	 * @throws IOException If the block is corrupted
+	 */
+	public static void decodeUnits(BitReader reader, byte[] output, int offset, int length, BlockChecksum checksum) throws IOException{
+
+		HuffmanTable table = HuffmanTable.readHeader(reader, UNIT_SYMBOLS);
+		int end = offset + (length & ~1);
+
+		for (int pos = offset; pos < end; pos += 2){
+			int unit = table.readSymbol(reader);
+			output[pos] = (byte)(unit >>> 8);
+			output[pos + 1] = (byte) unit;
+			checksum.update(pos + 2);
+		}
+
+		if (end < offset + length)
+			output[end] = (byte) reader.read(8);
+
+		if (reader.isOverrun())
+			throw new IOException("Truncated unit block");
+	}
+
+
+	/**
+	 * Returns the length of the word that starts at a position: an optional space followed by
+	 * letters and digits, at most MAX_WORD_LENGTH bytes
+	 * @param data The data
+	 * @param i The position
+	 * @param end The index after the last byte of the block
+	 * @return The length of the word, or 1 if no word of 2 or more bytes starts there
+	 */
+	private static int wordLength(byte[] data, int i, int end){
+
+		int limit = Math.min(end, i + MAX_WORD_LENGTH);
+		int j = data[i] == ' ' ? i + 1 : i;
+
+		while (j < limit && WORD_BYTES[data[j] & 0xff])
+			j++;
+
+		return Math.max(1, j - i);
+	}
+
+
+	/**
+	 * Packs the bytes of a word into a key (words never contain a 0 byte, so words of
+	 * different lengths have different keys)
+	 * @param data The data
+	 * @param i The position of the word
+	 * @param length The length of the word
+	 * @return The key
+	 */
+	private static long wordKey(byte[] data, int i, int length){
+
+		long key = 0;
+		for (int j = 0; j < length; j++)
+			key = key << 8 | (data[i + j] & 0xff);
+
+		return key;
+	}
+
+
+	/**
+	 * Encodes a block with a dictionary of its most frequent words
+	 * @param writer The bit stream
+	 * @param data The data to be compressed
+	 * @param offset The index of the first byte
+	 * @param length The number of bytes in the block
+	 */
+	public void encodeWords(BitOutputStream writer, byte[] data, int offset, int length){
+
+		int end = offset + length;
+		counts.clear();
+
+		for (int i = offset; i < end;){
+			int wordLength = wordLength(data, i, end);
+			if (wordLength > 1)
+				counts.add(wordKey(data, i, wordLength), 1);
+			i += wordLength;
+		}
+
+		long[] words = chooseWords();
+
+		writer.write(WORD_COUNT_BITS, words.length);
+		dictionary.clear();
+
+		for (int i = 0; i < words.length; i++){
+			int wordLength = 8 - Long.numberOfLeadingZeros(words[i]) / 8;
+			writer.write(WORD_LENGTH_BITS, wordLength - 1);
+			for (int j = wordLength - 1; j >= 0; j--)
+				writer.write(8, (int)(words[i] >>> (8 * j)) & 0xff);
+			dictionary.put(words[i], 256 + i);
+		}
+
+		//Symbols of the block, then their codes once the table is known
+		int[] symbols = new int[length];
+		int[] frequencies = new int[256 + words.length];
+		int count = 0;
+
+		for (int i = offset; i < end;){
+
+			int wordLength = wordLength(data, i, end);
+			int symbol = wordLength > 1 ? dictionary.get(wordKey(data, i, wordLength), -1) : -1;
+
+			if (symbol >= 0){
+				symbols[count++] = symbol;
+				frequencies[symbol]++;
+			}else{
+				for (int j = 0; j < wordLength; j++){
+					symbols[count] = data[i + j] & 0xff;
+					frequencies[symbols[count++]]++;
+				}
+			}
+
+			i += wordLength;
+		}
+
+		HuffmanTable table = new HuffmanTable(frequencies, maxCodeLength);
+		table.writeHeader(writer);
+
+		for (int i = 0; i < count; i++)
+			table.writeSymbol(writer, symbols[i]);
+	}
+
+
+	/**
+	 * Chooses the words of the dictionary among those in <code>counts</code>: the ones that
+	 * save the most symbols (occurrences * (length - 1)), seen at least MIN_WORD_COUNT times
+	 * @return The keys of the chosen words
+	 */
+	private long[] chooseWords(){
+
+		int used = counts.size();
+		long[] keys = new long[used];
+		int[] frequencies = new int[used];
+		counts.copyTo(keys, frequencies);
+
+		//Saved symbols in the high half and the index in the low half, so sorting ranks them
+		long[] ranked = new long[used];
+		int candidates = 0;
+
+		for (int i = 0; i < used; i++){
+			if (frequencies[i] >= MIN_WORD_COUNT){
+				int wordLength = 8 - Long.numberOfLeadingZeros(keys[i]) / 8;
+				ranked[candidates++] = (long) frequencies[i] * (wordLength - 1) << 32 | i;
+			}
+		}
+
+		Arrays.sort(ranked, 0, candidates);
+
+		long[] words = new long[Math.min(candidates, MAX_WORDS)];
+		for (int i = 0; i < words.length; i++)
+			words[i] = keys[(int) ranked[candidates - 1 - i]];
+
+		return words;
+	}
+
+
+	/**
+	 * Decodes a word block
+	 * @param reader The bit stream, positioned at the start of the payload
+	 * @param output Receives the decoded bytes
+	 * @param offset The index of the first byte to write
+	 * @param length The number of bytes of the original block
+	 * @param checksum Receives the decoded bytes while they are in cache
+	 * @throws IOException If the block is corrupted
+	 */
+	public static void decodeWords(BitReader reader, byte[] output, int offset, int length, BlockChecksum checksum) throws IOException{
+
+		int wordCount = reader.read(WORD_COUNT_BITS);
+
+		if (wordCount > MAX_WORDS)
+			throw new IOException("Invalid word block");
+
+		byte[][] words = new byte[wordCount][];
+
+		for (int i = 0; i < wordCount; i++){
+			words[i] = new byte[reader.read(WORD_LENGTH_BITS) + 1];
+			for (int j = 0; j < words[i].length; j++)
+				words[i][j] = (byte) reader.read(8);
+		}
+
+		HuffmanTable table = HuffmanTable.readHeader(reader, 256 + wordCount);
+		int pos = offset;
+		int end = offset + length;
+
+		while (pos < end){
+
+			checksum.update(pos);
+			int symbol = table.readSymbol(reader);
+
+			if (symbol < 256){
+				output[pos++] = (byte) symbol;
+				continue;
+			}
+
+			byte[] word = words[symbol - 256];
+
+			if (word.length > end - pos)
+				throw new IOException("Invalid word block");
+
+			System.arraycopy(word, 0, output, pos, word.length);
+			pos += word.length;
+		}
+
+		if (reader.isOverrun())
+			throw new IOException("Truncated word block");
+	}
+
+}
@@ -0,0 +1,1083 @@
+package huffman;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.lang.management.ManagementFactory;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.zip.CRC32C;
+
+import huffman.ThirdPartyClasses.BitOutputStream;
+
+/**
+ * REGRESSION CHECK
+ * Generates a corpus of edge-case files (empty, single symbol, 2 - 4 symbols, every byte value,
+ * skewed, random, block boundaries and a large synthetic log), and checks that every format and
+ * mode decodes them back unchanged. It also pins the on-disk formats: the original format must reproduce
+ * the bundled <code>CompressedFile.txt</code>, and the block container must produce the
+ * checksums in <code>golden.properties</code>. Every container is compressed with one thread
+ * and with several, which must give the same bytes. Finally, it measures the throughput on the
+ * large file and fails if it is more than the tolerance below <code>baseline.properties</code>.
+ * Both files are in the data directory, and are only written with <code>--record</code> (when
+ * the format changes on purpose, or on a new machine).
+ * <P>
+ * Built apart from the program, from the <code>test</code> directory, and run with:
+ * <code>java -cp out:test-out huffman.RegressionCheck [--large=MB] [--data=directory] [--tolerance=%] [--record] [sampleDirectory]</code>
+ * @author Andres Beltran
+ * @version 1.0
+ */
+
+public class RegressionCheck {
+
+	private static long SEED = 1998;						//Seed of every generated file
+	private static int GOLDEN_SIZE = 300000;				//Size of the file whose compressed form is pinned
+
+	//Modes whose compressed golden file is pinned by its CRC32C in golden.properties
+	private static String[] GOLDEN_MODES = {"-1", "-6", "-9", "-6 --interleaved", "-6 --coder=huffman", "-6 --coder=ans", "stored",
+			"-3 --block-size=64k --table-reuse=50 --max-code-length=11"};
+	private static String GOLDEN_FILE = "golden.properties";		//Checksums of the golden files, in the data directory
+	private static String BASELINE_FILE = "baseline.properties";	//Throughput, in the data directory
+
+	private File directory;									//Stores the generated files
+	private long largeSize = 64L << 20;						//Size of the large synthetic file (bytes)
+	private static int MAX_EXTRA_ALLOCATION = 1 << 18;		//Bytes a decoder may allocate for 3 MB more output
+	private static int[] THREADS = {1, 2, 4};				//Every container must be the same with these threads
+
+	private File data = new File("test", "data");			//Stores the golden checksums and the throughput
+	private double tolerance = 30;							//Slowdown from the baseline that fails the check (%)
+	private boolean record;									//Records the checksums and throughput instead of comparing them
+	private String samples = ".";							//Directory with the bundled sample files
+	private File failed;									//Stores the output of failed format checks
+	private ArrayList<String> failures = new ArrayList<>();	//Stores the description of every failed check
+	private int checks;										//Counts the checks run so far
+
+
+	/**
+	 * Runs every check
+	 * @return True if every check passed
+	 * @throws IOException If the corpus cannot be generated
+	 */
+	public boolean runChecks() throws IOException{
+
+		directory = Files.createTempDirectory("huffman-check").toFile();
+
+		try {
+
+			Map<String, File> corpus = generateCorpus();
+			checkRoundTrips(corpus);
+			checkOptions();
+			checkAppend(corpus.get("skewed"));
+			checkArchive(corpus);
+			checkByteBuffers(corpus);
+			checkAllocations(corpus.get("text"));
+			checkDaemon(corpus.get("text"));
+			checkLargeAlphabets();
+			checkUnitSymbols(corpus.get("samples"));
+			checkGoldenFiles();
+			checkThroughput(corpus.get("large"));
+
+		} finally {
+			for (File file : directory.listFiles())
+				file.delete();
+			directory.delete();
+		}
+
+		for (String failure : failures)
+			System.out.println("FAILED: " + failure);
+
+		System.out.println(checks + " checks, " + failures.size() + " failed");
+		return failures.isEmpty();
+	}
+
+
+	/**
+	 * Records the result of a check
+	 * @param passed True if the check passed
+	 * @param description What was checked
+	 */
+	private void check(boolean passed, String description){
+
+		checks++;
+		if (!passed)
+			failures.add(description);
+	}
+
+
+	/**
+	 * Generates the corpus in the temporary directory
+	 * @return The files, by name
+	 * @throws IOException If a file cannot be written
+	 */
+	private Map<String, File> generateCorpus() throws IOException{
+
+		Map<String, File> corpus = new LinkedHashMap<>();
+		Random random = new Random(SEED);
+
+		byte[] allBytes = new byte[256 * 64];
+		for (int i = 0; i < allBytes.length; i++)
+			allBytes[i] = (byte) i;
+
+		byte[] randomBytes = new byte[1 << 20];
+		random.nextBytes(randomBytes);
+
+		byte[] single = new byte[100000];
+		Arrays.fill(single, (byte) 'a');
+
+		corpus.put("empty", write("empty", new byte[0]));
+		corpus.put("one-byte", write("one-byte", new byte[] {'x'}));
+		corpus.put("single-symbol", write("single-symbol", single));
+		corpus.put("two-symbols", write("two-symbols", tinyAlphabet(random, "01", 100001)));
+		corpus.put("four-symbols", write("four-symbols", tinyAlphabet(random, "ACGT", 100003)));
+		corpus.put("all-bytes", write("all-bytes", allBytes));
+		corpus.put("skewed", write("skewed", skewed(random, 3 << 19)));
+		corpus.put("random", write("random", randomBytes));
+		corpus.put("text", write("text", logText(random, 1 << 20)));
+		corpus.put("samples", write("samples", samples(random, 300001)));
+		corpus.put("block-minus-one", write("block-minus-one", skewed(random, BlockFormat.BLOCK_SIZE - 1)));
+		corpus.put("block-exact", write("block-exact", skewed(random, BlockFormat.BLOCK_SIZE)));
+		corpus.put("block-plus-one", write("block-plus-one", skewed(random, BlockFormat.BLOCK_SIZE + 1)));
+
+		//The large file is written one chunk at a time, so it can be larger than the heap
+		File large = new File(directory, "large");
+		OutputStream output = new BufferedOutputStream(new FileOutputStream(large));
+
+		try {
+			for (long written = 0; written < largeSize; written += BlockFormat.BLOCK_SIZE){
+				int length = (int) Math.min(BlockFormat.BLOCK_SIZE, largeSize - written);
+				output.write(random.nextInt(8) == 0 ? skewed(random, length) : logText(random, length));
+			}
+		} finally {
+			output.close();
+		}
+
+		corpus.put("large", large);
+		return corpus;
+	}
+
+
+	/**
+	 * Writes a file of the corpus
+	 * @param name The name of the file
+	 * @param data The contents
+	 * @return The file
+	 * @throws IOException If the file cannot be written
+	 */
+	private File write(String name, byte[] data) throws IOException{
+
+		File file = new File(directory, name);
+		Files.write(file.toPath(), data);
+		return file;
+	}
+
+
+	/**
+	 * Generates a dump of 16-bit sensor readings: noise around a slowly drifting baseline,
+	 * high byte first (the length may be odd)
+	 * @param random The generator
+	 * @param length The number of bytes
+	 * @return The bytes
+	 */
+	private static byte[] samples(Random random, int length){
+
+		byte[] data = new byte[length];
+		double baseline = 1000;
+
+		for (int i = 0; i + 1 < length; i += 2){
+			baseline += random.nextGaussian() * 0.05;
+			int value = (int) Math.round(baseline + random.nextGaussian() * 40) & 0xffff;
+			data[i] = (byte)(value >>> 8);
+			data[i + 1] = (byte) value;
+		}
+
+		if (length % 2 == 1)
+			data[length - 1] = (byte) random.nextInt(256);
+
+		return data;
+	}
+
+
+	/**
+	 * Generates bytes with a few very frequent values (geometric distribution)
+	 * @param random The generator
+	 * @param length The number of bytes
+	 * @return The bytes
+	 */
+	private static byte[] skewed(Random random, int length){
+
+		byte[] data = new byte[length];
+
+		for (int i = 0; i < length; i++){
+			int value = 0;
+			while (value < 127 && random.nextInt(3) == 0)
+				value++;
+			data[i] = (byte) ('0' + value % 75);
+		}
+
+		return data;
+	}
+
+
+	/**
+	 * Generates bytes taken evenly from a few values
+	 * @param random The generator
+	 * @param values The values
+	 * @param length The number of bytes
+	 * @return The bytes
+	 */
+	private static byte[] tinyAlphabet(Random random, String values, int length){
+
+		byte[] data = new byte[length];
+
+		for (int i = 0; i < length; i++)
+			data[i] = (byte) values.charAt(random.nextInt(values.length()));
+
+		return data;
+	}
+
+
+	/**
+	 * Generates log-like ASCII text (repeated words, numbers and timestamps)
+	 * @param random The generator
+	 * @param length The number of bytes
+	 * @return The bytes
+	 */
+	private static byte[] logText(Random random, int length){
+
+		String[] levels = {"INFO", "INFO", "INFO", "DEBUG", "WARN", "ERROR"};
+		String[] words = {"request", "served", "cache", "miss", "hit", "user", "session", "opened", "closed",
+				"timeout", "retry", "worker", "queue", "flushed", "bytes", "from", "to", "in"};
+
+		StringBuilder text = new StringBuilder(length + 200);
+		int second = 0;
+
+		while (text.length() < length){
+
+			second += random.nextInt(3);
+			text.append("2018-11-26 ").append(10 + second / 3600 % 14).append(':')
+				.append(10 + second / 60 % 50).append(':').append(10 + second % 50).append(' ')
+				.append(levels[random.nextInt(levels.length)]).append(" worker-").append(random.nextInt(16));
+
+			int count = 3 + random.nextInt(8);
+			for (int i = 0; i < count; i++){
+				text.append(' ').append(words[Math.min(random.nextInt(words.length), random.nextInt(words.length))]);
+				if (random.nextInt(4) == 0)
+					text.append(' ').append(random.nextInt(100000));
+			}
+
+			text.append('\n');
+		}
+
+		return text.substring(0, length).getBytes(StandardCharsets.US_ASCII);
+	}
+
+
+	/**
+	 * Compresses and decompresses every file of the corpus with every mode
+	 * @param corpus The files, by name
+	 * @throws IOException If there is an error with any file
+	 */
+	private void checkRoundTrips(Map<String, File> corpus) throws IOException{
+
+		String[] modes = {"-1", "-6", "-9", "-6 --interleaved", "-6 --coder=ans", "-6 --coder=auto", "-6 --block-size=64k",
+				"-3 --block-size=64k --table-reuse=50 --max-code-length=11", "-6 --max-code-length=9 --io=mmap",
+				"-6 --symbols=16", "-1 --symbols=16", "-6 --symbols=words", "-1 --symbols=words"};
+		File compressed = new File(directory, "compressed");
+		File parallel = new File(directory, "parallel");
+		File decoded = new File(directory, "decoded");
+
+		for (Map.Entry<String, File> file : corpus.entrySet()){
+
+			if (file.getKey().equals("large"))
+				continue;
+
+			for (String mode : modes){
+				compress(file.getValue(), compressed, mode, 1);
+				compress(file.getValue(), parallel, mode, THREADS[THREADS.length - 1]);
+				check(sameContents(compressed, parallel), "same output with 1 and " + THREADS[THREADS.length - 1]
+						+ " threads for " + file.getKey() + " with " + mode);
+				check(new BlockDecompressor(compressed.getPath()).decode(decoded.getPath()) == 0
+						&& sameContents(file.getValue(), decoded), "round trip of " + file.getKey() + " with " + mode);
+				check(new BlockDecompressor(compressed.getPath()).verify() == 0, "verify of " + file.getKey() + " with " + mode);
+			}
+
+			//The original format reads text, so only the ASCII files are checked with it
+			if (file.getValue().length() > 0 && isAscii(file.getValue())){
+				String encoded = HuffmanCompressor.compress(file.getValue().getPath(), compressed.getPath(), discard());
+				check(encoded.equals("File successfully encoded!") && HuffmanCompressor.decompress(compressed.getPath(),
+						decoded.getPath()).equals("File successfully decoded!") && sameContents(file.getValue(), decoded),
+						"round trip of " + file.getKey() + " with the original format");
+
+				//Small chunks make every thread start in the middle of codes and resynchronize
+				HuffmanDecoder decoder = new HuffmanDecoder(compressed.getPath(), HuffmanCompressor.PROGRAM_NUMBER);
+				decoder.setParallelism(4, 517);
+				check(decoder.decode(decoded.getPath()) == 0 && sameContents(file.getValue(), decoded),
+						"parallel decoding of " + file.getKey() + " with the original format");
+			}
+		}
+	}
+
+
+	/**
+	 * Checks that sizes are read with their suffix, and that those that overflow are rejected
+	 */
+	private void checkOptions(){
+
+		CompressionConfig config = CompressionConfig.forLevel(6);
+		config.parseOption("--block-size=64k");
+		check(config.getBlockSize() == 64 << 10, "block size with a suffix");
+
+		for (String size : new String[] {"4100m", "4194304k", "99999999999", "-4k"}){
+			try {
+				config.parseOption("--block-size=" + size);
+				check(false, "block size " + size + " rejected");
+			} catch (IllegalArgumentException e) {
+				check(config.getBlockSize() == 64 << 10, "block size " + size + " rejected");
+			}
+		}
+	}
+
+
+	/**
+	 * Compresses a file in two runs (half of it, then the rest with append)
+	 * @param input The file
+	 * @throws IOException If there is an error with any file
+	 */
+	private void checkAppend(File input) throws IOException{
+
+		File growing = new File(directory, "growing");
+		File compressed = new File(directory, "appended");
+		File decoded = new File(directory, "decoded");
+		byte[] data = Files.readAllBytes(input.toPath());
+
+		Files.write(growing.toPath(), Arrays.copyOf(data, data.length / 2 + 12345));
+		new PipelinedCompressor(1, 1).append(growing.getPath(), compressed.getPath());
+
+		//The second run keeps the parameters recorded by the first one
+		Files.write(growing.toPath(), data);
+		new PipelinedCompressor(9, 2).append(growing.getPath(), compressed.getPath());
+
+		check(new BlockDecompressor(compressed.getPath()).decode(decoded.getPath()) == 0 && sameContents(input, decoded),
+				"round trip of an appended file");
+
+		try (InputStream in = new FileInputStream(compressed)){
+			BlockDecompressor decompressor = new BlockDecompressor(in);
+			check(decompressor.readHeader() && decompressor.getConfig().getLevel() == 1
+					&& decompressor.getBlockSize() == CompressionConfig.forLevel(1).getBlockSize(), "parameters of an appended file");
+		}
+
+		//The blocks of an interrupted append (here, cut in the middle) are ignored, then dropped
+		byte[] grown = Arrays.copyOf(data, data.length + 100000);
+		new Random(7).nextBytes(grown);
+		System.arraycopy(data, 0, grown, 0, data.length);
+		long size = compressed.length();
+		Files.write(growing.toPath(), grown);
+		new PipelinedCompressor(1, 1).append(growing.getPath(), compressed.getPath());
+
+		try (RandomAccessFile file = new RandomAccessFile(compressed, "rw")){
+			file.setLength(size + (file.length() - size) / 2);
+		}
+
+		check(new BlockDecompressor(compressed.getPath()).decode(decoded.getPath()) == 0 && sameContents(input, decoded),
+				"reading a file during an append");
+
+		new PipelinedCompressor(1, 1).append(growing.getPath(), compressed.getPath());
+		check(new BlockDecompressor(compressed.getPath()).decode(decoded.getPath()) == 0 && sameContents(growing, decoded),
+				"append after an interrupted append");
+
+		//An input whose compressed bytes changed anywhere is refused before the compressed file is touched
+		size = compressed.length();
+		grown[0] ^= 1;
+		Files.write(growing.toPath(), Arrays.copyOf(grown, grown.length + 100));
+		boolean refused = false;
+
+		try {
+			new PipelinedCompressor(1, 1).append(growing.getPath(), compressed.getPath());
+		} catch (IOException e) {
+			refused = true;
+		}
+
+		check(refused && compressed.length() == size, "append to a file whose input changed");
+	}
+
+
+	/**
+	 * Packs the small files of the corpus into an archive and extracts them in parallel
+	 * @param corpus The files, by name
+	 * @throws IOException If there is an error with any file
+	 */
+	private void checkArchive(Map<String, File> corpus) throws IOException{
+
+		File archive = new File(directory, "archive");
+		ArchiveWriter writer = new ArchiveWriter(archive.getPath(), 6);
+
+		for (Map.Entry<String, File> file : corpus.entrySet()){
+			if (!file.getKey().equals("large"))
+				writer.add("corpus/" + file.getKey(), file.getValue().getPath());
+		}
+
+		writer.close();
+
+		ArchiveReader reader = new ArchiveReader(archive.getPath());
+		File extracted = new File(directory, "extracted");
+
+		try {
+			reader.extract(reader.getEntries(), extracted.getPath(), 4);
+
+			for (ArchiveEntry entry : reader.getEntries()){
+				File original = corpus.get(entry.getName().substring("corpus/".length()));
+				File copy = new File(extracted, entry.getName());
+				check(sameContents(original, copy), "archive entry " + entry.getName());
+				copy.delete();
+			}
+
+		} finally {
+			reader.close();
+			new File(extracted, "corpus").delete();
+			extracted.delete();
+		}
+
+		//An entry that fails after its header was written leaves no archive behind (reading
+		//this file fails on Linux; elsewhere there is nothing to check)
+		File unreadable = new File("/proc/self/mem");
+
+		if (unreadable.exists()){
+
+			ArchiveWriter broken = new ArchiveWriter(archive.getPath(), 6);
+			boolean refused = false;
+
+			try {
+				broken.add("first", corpus.get("text").getPath());
+				broken.add("unreadable", unreadable.getPath());
+			} catch (IOException e) {
+				refused = true;
+			} finally {
+				broken.close();
+			}
+
+			check(refused && !archive.exists(), "archive with a failed entry");
+		}
+	}
+
+
+	/**
+	 * Compresses and decompresses the small files through heap and direct buffers
+	 * @param corpus The files, by name
+	 * @throws IOException If a file cannot be read
+	 */
+	private void checkByteBuffers(Map<String, File> corpus) throws IOException{
+
+		for (Map.Entry<String, File> file : corpus.entrySet()){
+
+			if (file.getKey().equals("large"))
+				continue;
+
+			byte[] data = Files.readAllBytes(file.getValue().toPath());
+			ByteBuffer src = ByteBuffer.allocateDirect(data.length);
+			src.put(data).flip();
+
+			ByteBuffer dst = ByteBuffer.allocateDirect((int) ByteBufferCodec.maxCompressedLength(data.length));
+			ByteBufferCodec.compress(src, dst, 6);
+			dst.flip();
+
+			ByteBuffer original = ByteBuffer.allocate(data.length);
+			ByteBufferCodec.decompress(dst, original);
+			check(Arrays.equals(original.array(), data) && !dst.hasRemaining(), "byte buffers with " + file.getKey());
+
+			//The compressor kept by this thread must start each call from scratch, even after a failed one
+			try {
+				ByteBufferCodec.compress(ByteBuffer.wrap(data), ByteBuffer.allocate(BlockFormat.HEADER_SIZE + 1), 6);
+			} catch (BufferOverflowException e) {
+				//Expected: the destination has no room for the blocks
+			}
+
+			ByteBuffer again = ByteBuffer.allocate(dst.limit());
+			ByteBufferCodec.compress(ByteBuffer.wrap(data), again, 6);
+			dst.rewind();
+			check(again.flip().equals(dst), "repeated byte buffer compression of " + file.getKey());
+
+			//Blocks coded in place must be the ones the stream compressor writes
+			CompressionConfig config = CompressionConfig.forLevel(6);
+			config.setBlockSize(BlockFormat.BLOCK_SIZE);
+			ByteArrayOutputStream stream = new ByteArrayOutputStream();
+			BlockCompressor compressor = new BlockCompressor(stream, config);
+			compressor.write(new ByteArrayInputStream(data));
+			dst.rewind();
+			check(ByteBuffer.wrap(stream.toByteArray()).equals(dst), "byte buffer and stream compression of " + file.getKey());
+		}
+	}
+
+
+	/**
+	 * Checks that the decoders allocate nothing per symbol: once they are warmed up, decoding a
+	 * file four times as long may only allocate what its extra blocks need (tables and headers)
+	 * @param text The file to be decoded (ASCII, so the original format can encode it)
+	 * @throws IOException If there is an error with any file
+	 */
+	private void checkAllocations(File text) throws IOException{
+
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+		if (!(threads instanceof com.sun.management.ThreadMXBean)
+				|| !((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()){
+			System.out.println("Allocation counters not available, skipping the allocation checks");
+			return;
+		}
+
+		byte[] data = Files.readAllBytes(text.toPath());
+		File longer = new File(directory, "longer");
+
+		try (OutputStream output = new FileOutputStream(longer)){
+			for (int i = 0; i < 4; i++)
+				output.write(data);
+		}
+
+		for (final String mode : new String[] {"original", "-6"}){
+
+			long[] allocated = new long[2];
+			File[] inputs = {text, longer};
+
+			for (int i = 0; i < inputs.length; i++){
+
+				File compressed = new File(directory, "allocations-" + i);
+
+				if (mode.equals("original"))
+					HuffmanCompressor.compress(inputs[i].getPath(), compressed.getPath(), discard());
+				else
+					compress(inputs[i], compressed, mode, 1);
+
+				//The first runs load the classes and compile the loops
+				for (int round = 0; round < 3; round++)
+					allocated[i] = decodeAllocations(compressed, mode.equals("original"));
+
+				compressed.delete();
+			}
+
+			check(allocated[1] - allocated[0] <= MAX_EXTRA_ALLOCATION, String.format(
+					"decoding with %s allocates %d bytes for 1 MB and %d bytes for 4 MB", mode, allocated[0], allocated[1]));
+		}
+	}
+
+
+	/**
+	 * Decodes a file on this thread without writing it, and measures what it allocates
+	 * @param compressed The compressed file
+	 * @param original True for the original format, false for the block container
+	 * @return The number of bytes allocated by this thread
+	 * @throws IOException If the file cannot be decoded
+	 */
+	private static long decodeAllocations(File compressed, boolean original) throws IOException{
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long id = Thread.currentThread().getId();
+		long start = threads.getThreadAllocatedBytes(id);
+
+		if (original){
+			HuffmanDecoder decoder = new HuffmanDecoder(compressed.getPath(), HuffmanCompressor.PROGRAM_NUMBER);
+			decoder.setParallelism(1, 1 << 20);
+			decoder.verify();
+		}else{
+			new BlockDecompressor(compressed.getPath()).verify();
+		}
+
+		return threads.getThreadAllocatedBytes(id) - start;
+	}
+
+
+	/**
+	 * Runs jobs through a daemon: files named relative to the client's directory while idle
+	 * clients hold every job thread, requests with a wrong token, and the stop request
+	 * @param input The file compressed by the daemon
+	 * @throws IOException If the daemon's socket cannot be opened
+	 */
+	private void checkDaemon(File input) throws IOException{
+
+		final Path state = new File(directory, "daemon").toPath();
+		final HuffmanDaemon daemon = new HuffmanDaemon(0, 2, state);
+		final Path client = directory.toPath();
+
+		Thread server = new Thread(new Runnable(){
+			public void run(){
+				try {
+					daemon.serve();
+				} catch (IOException e) {
+					//Reported by the checks below, which cannot reach the daemon
+				}
+			}
+		});
+		server.start();
+
+		try {
+
+			//The state file is published once the daemon accepts jobs
+			for (int i = 0; i < 100 && !Files.exists(state); i++)
+				Thread.sleep(50);
+
+			//Clients that send nothing hold a job thread until their request times out
+			Socket[] idle = new Socket[2];
+			for (int i = 0; i < idle.length; i++)
+				idle[i] = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort());
+
+			//The reply holds the statistics the command prints, and then its result
+			String encoded = HuffmanDaemon.request(state, client, new String[] {"compress", "-6", input.getName(), "daemon.huf"});
+
+			for (Socket socket : idle)
+				socket.close();
+
+			check(encoded.contains("Space saving: ") && encoded.endsWith("File successfully encoded!"), "daemon replies with the output of its job");
+
+			String[] decompress = {"decompress", "daemon.huf", "daemon.out"};
+			check(encoded.endsWith("File successfully encoded!")
+					&& HuffmanDaemon.request(state, client, decompress).equals("File successfully decoded!")
+					&& sameContents(input, new File(directory, "daemon.out")), "daemon round trip");
+
+			Path forged = new File(directory, "forged").toPath();
+			Files.write(forged, (daemon.getPort() + " 0123456789abcdef0123456789abcdef").getBytes(StandardCharsets.US_ASCII));
+			check(HuffmanDaemon.request(forged, client, new String[] {"verify", "daemon.huf"}).equals("Invalid token"),
+					"daemon rejects a wrong token");
+
+			//The token is checked before the rest of the request is read
+			try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort())){
+				socket.getOutputStream().write("0123456789abcdef0123456789abcdef\t".getBytes(StandardCharsets.US_ASCII));
+				socket.setSoTimeout(2000);
+				BufferedReader reply = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+				check("Invalid token".equals(reply.readLine()), "daemon rejects a wrong token before reading the command");
+			}
+
+			check(HuffmanDaemon.request(state, client, new String[] {"stop"}).equals("Daemon stopped"), "daemon stop");
+			server.join(10000);
+			check(!server.isAlive() && !Files.exists(state), "daemon removes its state file");
+
+		} catch (IOException e) {
+			check(false, "daemon request: " + e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			daemon.stop();
+			new File(directory, "daemon.huf").delete();
+			new File(directory, "daemon.out").delete();
+			new File(directory, "forged").delete();
+		}
+	}
+
+
+	/**
+	 * Codes symbols of alphabets larger than a byte (LZ symbols, byte pairs, 16-bit units) with
+	 * deep, skewed trees, and reads them back through the table header. Each alphabet is coded
+	 * with a dense histogram and with a sparse one, with short codes (two-level lookups) and
+	 * unrestricted codes (which also traverse the tree)
+	 * @throws IOException If a table cannot be read back
+	 */
+	private void checkLargeAlphabets() throws IOException{
+
+		Random random = new Random(SEED);
+
+		for (int alphabetSize : new int[] {LZBlockCodec.LITERAL_LENGTH_SYMBOLS, 4096, 1 << 16}){
+
+			//A few symbols with geometric frequencies over a sparse, uniform background
+			int[] frequencies = new int[alphabetSize];
+			int[] symbols = new int[20000];
+			LongIntHashMap counts = new LongIntHashMap(16);
+
+			for (int i = 0; i < symbols.length; i++){
+				symbols[i] = i % 3 == 0 ? random.nextInt(alphabetSize)
+						: Integer.numberOfTrailingZeros(random.nextInt() | 1 << 30) * 97 % alphabetSize;
+				frequencies[symbols[i]]++;
+				counts.add(symbols[i], 1);
+			}
+
+			long[] keys = new long[counts.size()];
+			int[] used = new int[keys.length];
+			int[] usedSymbols = new int[keys.length];
+			counts.copyTo(keys, used);
+			for (int i = 0; i < keys.length; i++)
+				usedSymbols[i] = (int) keys[i];
+
+			checkTable(new HuffmanTable(frequencies), symbols, alphabetSize, "dense, 31 bits");
+			checkTable(new HuffmanTable(alphabetSize, usedSymbols, used, keys.length, 31), symbols, alphabetSize, "sparse, 31 bits");
+			checkTable(new HuffmanTable(alphabetSize, usedSymbols, used, keys.length, 12), symbols, alphabetSize, "sparse, 12 bits");
+		}
+	}
+
+
+	/**
+	 * Codes symbols with a table and decodes them back through the table header
+	 * @param table The table
+	 * @param symbols The symbols
+	 * @param alphabetSize The number of symbols in the alphabet
+	 * @param description How the table was built
+	 * @throws IOException If the table cannot be read back
+	 */
+	private void checkTable(HuffmanTable table, int[] symbols, int alphabetSize, String description) throws IOException{
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BitOutputStream writer = new BitOutputStream(bytes);
+
+		table.writeHeader(writer);
+		for (int symbol : symbols)
+			table.writeSymbol(writer, symbol);
+		writer.flush();
+
+		BitReader reader = new BitReader();
+		reader.reset(bytes.toByteArray(), 0, bytes.size());
+		HuffmanTable read = HuffmanTable.readHeader(reader, alphabetSize);
+		boolean same = true;
+
+		for (int i = 0; i < symbols.length && same; i++)
+			same = read.readSymbol(reader) == symbols[i];
+
+		check(same && !reader.isOverrun(), "Huffman table with " + alphabetSize + " symbols (" + description + ")");
+	}
+
+
+	/**
+	 * Checks that 16-bit symbols code sensor readings smaller than bytes and LZ77 matches
+	 * @param samples The file of 16-bit readings
+	 * @throws IOException If there is an error with any file
+	 */
+	private void checkUnitSymbols(File samples) throws IOException{
+
+		File bytes = new File(directory, "bytes");
+		File units = new File(directory, "units");
+
+		compress(samples, bytes, "-6", 1);
+		compress(samples, units, "-6 --symbols=16", 1);
+
+		check(units.length() < bytes.length(), "16-bit symbols smaller than bytes (" + units.length() + " and "
+				+ bytes.length() + " bytes)");
+	}
+
+
+	/**
+	 * Checks that the formats have not changed: the original format against the bundled sample
+	 * files, and the block container against the pinned checksums
+	 * @throws IOException If there is an error with any file
+	 */
+	private void checkGoldenFiles() throws IOException{
+
+		File original = new File(samples, "PrideAndPrejudice.txt");
+		File golden = new File(samples, "CompressedFile.txt");
+
+		if (original.exists() && golden.exists()){
+
+			File compressed = new File(directory, "golden");
+			File decoded = new File(directory, "decoded");
+
+			HuffmanCompressor.compress(original.getPath(), compressed.getPath(), discard());
+
+			check(sameContents(golden, compressed), "original format matches CompressedFile.txt");
+			check(HuffmanCompressor.decompress(golden.getPath(), decoded.getPath()).equals("File successfully decoded!")
+					&& sameContents(original, decoded), "CompressedFile.txt decodes to PrideAndPrejudice.txt");
+		}else{
+			System.out.println("Sample files not found in " + samples + ", skipping the original format");
+		}
+
+		Random random = new Random(SEED);
+		File text = write("golden-text", logText(random, GOLDEN_SIZE));
+		byte[] noise = new byte[GOLDEN_SIZE];
+		random.nextBytes(noise);
+		File stored = write("golden-stored", noise);
+		File compressed = new File(directory, "golden");
+		File checksums = new File(data, GOLDEN_FILE);
+		Properties pinned = load(checksums);
+
+		if (!record && pinned.isEmpty()){
+			check(false, "golden checksums in " + checksums + " (record them with --record)");
+			return;
+		}
+
+		for (int i = 0; i < GOLDEN_MODES.length; i++){
+			for (int threads : THREADS){
+
+				if (GOLDEN_MODES[i].equals("stored"))
+					compress(stored, compressed, "-6", threads);
+				else
+					compress(text, compressed, GOLDEN_MODES[i], threads);
+
+				CRC32C checksum = new CRC32C();
+				checksum.update(Files.readAllBytes(compressed.toPath()));
+				String value = String.format("%08x", (int) checksum.getValue());
+				String description = String.format("block container format with %s and %d threads (checksum %s)",
+						GOLDEN_MODES[i], threads, value);
+
+				//The first thread count records the checksum, and the others must match it
+				if (record && threads == THREADS[0])
+					pinned.setProperty(GOLDEN_MODES[i], value);
+
+				//The temporary directory is deleted, so the bytes are kept elsewhere to compare them
+				if (!value.equals(pinned.getProperty(GOLDEN_MODES[i])))
+					description += ", output kept in " + keep(compressed, "golden-" + i + "-" + threads + ".huf");
+
+				check(value.equals(pinned.getProperty(GOLDEN_MODES[i])), description);
+			}
+		}
+
+		if (record)
+			store(pinned, checksums, "CRC32C of the golden files of the regression check, by mode");
+	}
+
+
+	/**
+	 * Copies a file out of the temporary directory, so it can be inspected after a failure
+	 * @param file The file
+	 * @param name The name of the copy
+	 * @return The path of the copy
+	 * @throws IOException If the file cannot be copied
+	 */
+	private String keep(File file, String name) throws IOException{
+
+		if (failed == null)
+			failed = Files.createTempDirectory("huffman-failed").toFile();
+
+		File copy = new File(failed, name);
+		Files.copy(file.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		return copy.getPath();
+	}
+
+
+	/**
+	 * Measures compression and decompression of the large file at the default level
+	 * @param large The large synthetic file
+	 * @throws IOException If there is an error with any file
+	 */
+	private void checkThroughput(File large) throws IOException{
+
+		File compressed = new File(directory, "compressed");
+		File decoded = new File(directory, "decoded");
+		double megabytes = large.length() / 1e6;
+
+		long start = System.nanoTime();
+		new PipelinedCompressor(6, Runtime.getRuntime().availableProcessors()).compress(large.getPath(), compressed.getPath());
+		double compressSpeed = megabytes / ((System.nanoTime() - start) / 1e9);
+
+		start = System.nanoTime();
+		int result = new BlockDecompressor(compressed.getPath()).decode(decoded.getPath());
+		double decompressSpeed = megabytes / ((System.nanoTime() - start) / 1e9);
+
+		check(result == 0 && sameContents(large, decoded), "round trip of the large file");
+
+		System.out.printf("Large file: %.1f MB -> %.1f MB, compress %.1f MB/s, decompress %.1f MB/s%n",
+				megabytes, compressed.length() / 1e6, compressSpeed, decompressSpeed);
+
+		//Speeds depend on the machine, so they are compared with the ones recorded on it
+		File baseline = new File(data, BASELINE_FILE);
+		Properties speeds = load(baseline);
+		String key = "." + large.length();
+
+		if (record){
+			speeds.setProperty("compress" + key, String.format(Locale.ROOT, "%.1f", compressSpeed));
+			speeds.setProperty("decompress" + key, String.format(Locale.ROOT, "%.1f", decompressSpeed));
+			store(speeds, baseline, "Throughput of the regression check (MB/s), by size of the large file");
+			System.out.println("Baseline recorded in " + baseline);
+			return;
+		}
+
+		if (speeds.getProperty("compress" + key) == null || speeds.getProperty("decompress" + key) == null){
+			check(false, "throughput baseline for " + large.length() + " bytes in " + baseline + " (record it with --record)");
+			return;
+		}
+
+		checkSpeed("compression", compressSpeed, Double.parseDouble(speeds.getProperty("compress" + key)));
+		checkSpeed("decompression", decompressSpeed, Double.parseDouble(speeds.getProperty("decompress" + key)));
+	}
+
+
+	/**
+	 * Checks that a speed is not more than the tolerance below its baseline
+	 * @param description What was measured
+	 * @param speed The speed (MB/s)
+	 * @param recorded The baseline speed (MB/s)
+	 */
+	private void checkSpeed(String description, double speed, double recorded){
+
+		double minimum = recorded * (1 - tolerance / 100);
+		check(speed >= minimum, String.format("%s at %.1f MB/s (baseline %.1f, minimum %.1f)", description, speed, recorded, minimum));
+	}
+
+
+	/**
+	 * Compresses a file with the options of the command line
+	 * @param input The file to be compressed
+	 * @param output The compressed file
+	 * @param mode The level followed by the other options
+	 * @param threads The number of blocks encoded at the same time
+	 * @throws IOException If there is an error with any file
+	 */
+	private static void compress(File input, File output, String mode, int threads) throws IOException{
+
+		String[] options = mode.split(" ");
+		CompressionConfig config = CompressionConfig.forLevel(Integer.parseInt(options[0].substring(1)));
+		config.setThreads(threads);
+
+		for (int i = 1; i < options.length; i++)
+			config.parseOption(options[i]);
+
+		new PipelinedCompressor(config).compress(input.getPath(), output.getPath());
+	}
+
+
+	/**
+	 * Compares two files
+	 * @param first A file
+	 * @param second Another file
+	 * @return True if both files have the same contents
+	 * @throws IOException If a file cannot be read
+	 */
+	private static boolean sameContents(File first, File second) throws IOException{
+
+		if (!second.exists() || first.length() != second.length())
+			return false;
+
+		InputStream a = new BufferedInputStream(new FileInputStream(first));
+		InputStream b = new BufferedInputStream(new FileInputStream(second));
+
+		try {
+			int value;
+			while ((value = a.read()) != -1){
+				if (value != b.read())
+					return false;
+			}
+			return true;
+		} finally {
+			a.close();
+			b.close();
+		}
+	}
+
+
+	/**
+	 * Checks if a file only holds ASCII characters
+	 * @param file The file
+	 * @return True if every byte is below 128
+	 * @throws IOException If the file cannot be read
+	 */
+	private static boolean isAscii(File file) throws IOException{
+
+		for (byte value : Files.readAllBytes(file.toPath())){
+			if (value < 0)
+				return false;
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * Returns a stream that discards what is printed into it, for the encoding table printed by
+	 * the original format (each call gets its own, so <code>System.out</code> is never replaced)
+	 * @return The stream
+	 */
+	private static PrintStream discard(){
+
+		return new PrintStream(new OutputStream(){
+			public void write(int b){
+			}
+
+			public void write(byte[] b, int off, int len){
+			}
+		});
+	}
+
+
+	/**
+	 * Reads a properties file of the data directory
+	 * @param file The file
+	 * @return Its properties, or none if the file does not exist
+	 * @throws IOException If the file cannot be read
+	 */
+	private static Properties load(File file) throws IOException{
+
+		Properties properties = new Properties();
+
+		if (file.exists()){
+			try (InputStream in = new FileInputStream(file)){
+				properties.load(in);
+			}
+		}
+
+		return properties;
+	}
+
+
+	/**
+	 * Writes a properties file of the data directory, sorted by key so that recording again
+	 * only changes the values that changed
+	 * @param properties The properties
+	 * @param file The file
+	 * @param comment The first line of the file
+	 * @throws IOException If the file cannot be written
+	 */
+	private static void store(Properties properties, File file, String comment) throws IOException{
+
+		file.getParentFile().mkdirs();
+
+		try (PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.ISO_8859_1))){
+			out.println("#" + comment);
+			for (Map.Entry<Object, Object> entry : new TreeMap<>(properties).entrySet())
+				out.println(escape(entry.getKey().toString()) + "=" + entry.getValue());
+		}
+	}
+
+
+	/**
+	 * Escapes the characters of a key that <code>Properties.load</code> would read as separators
+	 * @param key The key
+	 * @return The escaped key
+	 */
+	private static String escape(String key){
+		return key.replace("\\", "\\\\").replace(" ", "\\ ").replace("=", "\\=").replace(":", "\\:");
+	}
+
+
+	/**
+	 * Runs the checks, and exits with status 0 if every check passed, or 1 otherwise
+	 * @param args The options (see the class description)
+	 */
+	public static void main(String[] args){
+		System.exit(run(args));
+	}
+
+
+	/**
+	 * Runs the checks with the options of the command line
+	 * @param args The options (see the class description)
+	 * @return 0 if every check passed, or 1 otherwise
+	 */
+	private static int run(String[] args){
+
+		RegressionCheck regression = new RegressionCheck();
+
+		for (String arg : args){
+			if (arg.startsWith("--large="))
+				regression.largeSize = Long.parseLong(arg.substring("--large=".length())) << 20;
+			else if (arg.startsWith("--data="))
+				regression.data = new File(arg.substring("--data=".length()));
+			else if (arg.startsWith("--tolerance="))
+				regression.tolerance = Double.parseDouble(arg.substring("--tolerance=".length()));
+			else if (arg.equals("--record"))
+				regression.record = true;
+			else
+				regression.samples = arg;
+		}
+
+		try {
+			return regression.runChecks() ? 0 : 1;
+		} catch (IOException e) {
+			System.out.println("Check error: " + e.getMessage());
+			return 1;
+		}
+	}
+
+}